@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.json.JsonObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Concurrent, bounded cache of API server responses.
+ * <p>
+ * Entries are evicted in LRU order once {@link APIConfig#getCacheMaxEntries()}
+ * is reached, and unconditionally once older than
+ * {@link APIConfig#getCacheMaxTtl()}. Within that bound each reader decides
+ * how old a response it is willing to accept.
+ * </p>
+ * <p>
+ * Identical requests issued concurrently are coalesced: only one of them is
+ * sent to the API server and all callers share its result (or failure).
+ * </p>
+ */
+public class APICache implements APICacheMBean {
+    private final Cache<String, CacheEntry> cache;
+    private final long maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public APICache(APIConfig config) {
+        maxSize = config.getCacheMaxEntries();
+        cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+                .expireAfterWrite(config.getCacheMaxTtl(), TimeUnit.MILLISECONDS).recordStats().build();
+    }
+
+    private CacheEntry get(String key, long duration) {
+        if (key == null) {
+            return null;
+        }
+        CacheEntry value = cache.getIfPresent(key);
+        if (value != null && value.valid(duration)) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    public String getString(String key, long duration) {
+        CacheEntry value = get(key, duration);
+        return value != null ? value.stringValue() : null;
+    }
+
+    public JsonObject getJsonObject(String key, long duration) {
+        CacheEntry value = get(key, duration);
+        return value != null ? value.jsonObject() : null;
+    }
+
+    public void put(String key, Object value) {
+        cache.put(key, new CacheEntry(value));
+    }
+
+    /**
+     * Run loader for the given request key, unless the same request is already
+     * in flight, in which case wait for and share its result.
+     */
+    public String load(String key, Supplier<String> loader) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            String res = loader.get();
+            future.complete(res);
+            return res;
+        } catch (Throwable t) {
+            // Also on errors, or the waiting callers would hang forever
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #load}, sharing the same in-flight
+     * requests.
+     */
+    public CompletableFuture<String> loadAsync(String key, Supplier<CompletableFuture<String>> loader) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.thenApply(v -> v);
+        }
+        CompletableFuture<String> res;
+        try {
+            res = loader.get();
+        } catch (Throwable t) {
+            res = new CompletableFuture<>();
+            res.completeExceptionally(t);
+        }
+        res.whenComplete((v, t) -> {
+            inFlight.remove(key, future);
+            if (t != null) {
+                future.completeExceptionally(t);
+            } else {
+                future.complete(v);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? Double.NaN : (double) h / total;
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+/**
+ * Statistics and control of the {@link APIClient} response cache and request
+ * coalescing.
+ */
+public interface APICacheMBean {
+    public static final String OBJECT_NAME = "com.scylladb.jmx:type=APICache";
+
+    /** Number of lookups served from the cache */
+    long getHitCount();
+
+    /** Number of lookups that had to go to the API server */
+    long getMissCount();
+
+    /** Number of requests that shared the result of an identical in-flight one */
+    long getCoalescedCount();
+
+    /** Number of entries evicted because of size or age */
+    long getEvictionCount();
+
+    /** Ratio of hits to lookups, NaN if there were no lookups yet */
+    double getHitRate();
+
+    /** Current number of cached responses */
+    long getSize();
+
+    /** Maximum number of cached responses */
+    long getMaxSize();
+
+    /** Drop all cached responses */
+    void invalidateAll();
+}
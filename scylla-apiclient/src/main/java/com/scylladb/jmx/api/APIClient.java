@@ -3,6 +3,12 @@
  */
 package com.scylladb.jmx.api;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -15,7 +21,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.json.Json;
@@ -27,27 +36,25 @@ import javax.json.JsonString;
 import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 import javax.ws.rs.ProcessingException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 
-import org.glassfish.jersey.client.ClientConfig;
-
-import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 import com.scylladb.jmx.utils.SnapshotDetailsTabularData;
 
 public class APIClient {
-    private Map<String, CacheEntry> cache = new HashMap<String, CacheEntry>();
-
     private String getCacheKey(String key, MultivaluedMap<String, String> param, long duration) {
         if (duration <= 0) {
             return null;
         }
+        return getRequestKey(key, param);
+    }
+
+    private String getRequestKey(String key, MultivaluedMap<String, String> param) {
         if (param != null) {
             StringBuilder sb = new StringBuilder(key);
             sb.append("?");
@@ -59,41 +66,39 @@ public class APIClient {
         return key;
     }
 
-    private String getStringFromCache(String key, long duration) {
-        if (key == null) {
-            return null;
-        }
-        CacheEntry value = cache.get(key);
-        return (value != null && value.valid(duration)) ? value.stringValue() : null;
-    }
-
-    private JsonObject getJsonObjectFromCache(String key, long duration) {
-        if (key == null) {
-            return null;
-        }
-        CacheEntry value = cache.get(key);
-        return (value != null && value.valid(duration)) ? value.jsonObject() : null;
-    }
-
     private JsonReaderFactory factory = Json.createReaderFactory(null);
     private static final Logger logger = Logger.getLogger(APIClient.class.getName());
 
-    private final APIConfig config;
-    private final ClientConfig clientConfig;
+    private final APITransport transport;
+    private final APICache cache;
+    private final MetricStore store;
+    private final MetricsSnapshot snapshot;
 
     public APIClient(APIConfig config) {
-        this.config = config;
-        this.clientConfig = new ClientConfig();
-        clientConfig.register(new JacksonJaxbJsonProvider());
+        this.transport = new APITransport(config);
+        this.cache = new APICache(config);
+        this.store = new MetricStore(config);
+        this.snapshot = new MetricsSnapshot(config, store, p -> cache.load(p, () -> fetchRawValue(p, null)));
+    }
+
+    public APICache getCache() {
+        return cache;
     }
 
-    private String getBaseUrl() {
-        return config.getBaseUrl();
+    public MetricsSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public MetricStore getMetricStore() {
+        return store;
+    }
+
+    public APITransport getTransport() {
+        return transport;
     }
 
     public Invocation.Builder get(String path, MultivaluedMap<String, String> queryParams) {
-        Client client = ClientBuilder.newClient(clientConfig);
-        WebTarget webTarget = client.target(getBaseUrl()).path(path);
+        WebTarget webTarget = transport.target(path);
         if (queryParams != null) {
             for (Entry<String, List<String>> qp : queryParams.entrySet()) {
                 for (String e : qp.getValue()) {
@@ -119,6 +124,9 @@ public class APIClient {
                 throw getException("Scylla API server HTTP POST to URL '" + path + "' failed",
                         response.readEntity(String.class));
             }
+            // Read the (usually empty) reply up front so the pooled
+            // connection is released even if the caller ignores it.
+            response.bufferEntity();
             return response;
         } catch (ProcessingException e) {
             throw new IllegalStateException("Unable to connect to Scylla API server: " + e.getMessage());
@@ -152,14 +160,15 @@ public class APIClient {
     }
 
     public void delete(String path, MultivaluedMap<String, String> queryParams) {
-        if (queryParams != null) {
-            get(path, queryParams).delete();
-            return;
-        }
-        Response response = get(path).delete();
-        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
-            throw getException("Scylla API server HTTP delete to URL '" + path + "' failed",
-                    response.readEntity(String.class));
+        try {
+            Response response = get(path, queryParams).delete();
+            if (queryParams == null && response.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw getException("Scylla API server HTTP delete to URL '" + path + "' failed",
+                        response.readEntity(String.class));
+            }
+            response.close();
+        } catch (ProcessingException e) {
+            throw new IllegalStateException("Unable to connect to Scylla API server: " + e.getMessage());
         }
     }
 
@@ -167,16 +176,8 @@ public class APIClient {
         delete(path, null);
     }
 
-    public String getRawValue(String string, MultivaluedMap<String, String> queryParams, long duration) {
+    private String fetchRawValue(String string, MultivaluedMap<String, String> queryParams) {
         try {
-            if (string.equals("")) {
-                return "";
-            }
-            String key = getCacheKey(string, queryParams, duration);
-            String res = getStringFromCache(key, duration);
-            if (res != null) {
-                return res;
-            }
             Response response = get(string, queryParams).get(Response.class);
 
             if (response.getStatus() != Response.Status.OK.getStatusCode()) {
@@ -186,16 +187,88 @@ public class APIClient {
                 throw getException("Scylla API server HTTP GET to URL '" + string + "' failed",
                         response.readEntity(String.class));
             }
-            res = response.readEntity(String.class);
-            if (duration > 0) {
-                cache.put(key, new CacheEntry(res));
+            return response.readEntity(String.class);
+        } catch (ProcessingException e) {
+            throw new IllegalStateException("Unable to connect to Scylla API server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the response for the given request with the given function
+     * while it is received, without ever holding all of it in memory. The
+     * response is not cached.
+     */
+    public <T> T getStreamed(String string, MultivaluedMap<String, String> queryParams, Function<Reader, T> reader) {
+        try {
+            Response response = get(string, queryParams).get(Response.class);
+            try {
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    throw getException("Scylla API server HTTP GET to URL '" + string + "' failed",
+                            response.readEntity(String.class));
+                }
+                try (Reader r = new InputStreamReader(response.readEntity(InputStream.class), UTF_8)) {
+                    return reader.apply(r);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not read " + string + ": " + e.getMessage());
+                }
+            } finally {
+                response.close();
             }
-            return res;
         } catch (ProcessingException e) {
             throw new IllegalStateException("Unable to connect to Scylla API server: " + e.getMessage());
         }
     }
 
+    private CompletableFuture<String> fetchRawValueAsync(String string, MultivaluedMap<String, String> queryParams) {
+        CompletableFuture<String> res = new CompletableFuture<>();
+        try {
+            get(string, queryParams).async().get(new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    try {
+                        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                            throw getException("Scylla API server HTTP GET to URL '" + string + "' failed",
+                                    response.readEntity(String.class));
+                        }
+                        res.complete(response.readEntity(String.class));
+                    } catch (RuntimeException e) {
+                        res.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    res.completeExceptionally(
+                            new IllegalStateException("Unable to connect to Scylla API server: " + t.getMessage()));
+                }
+            });
+        } catch (ProcessingException e) {
+            res.completeExceptionally(
+                    new IllegalStateException("Unable to connect to Scylla API server: " + e.getMessage()));
+        }
+        return res;
+    }
+
+    public String getRawValue(String string, MultivaluedMap<String, String> queryParams, long duration) {
+        if (string.equals("")) {
+            return "";
+        }
+        if (snapshot.covers(string, queryParams)) {
+            return snapshot.get(string);
+        }
+        String key = getCacheKey(string, queryParams, duration);
+        String res = cache.getString(key, duration);
+        if (res != null) {
+            return res;
+        }
+        res = cache.load(key != null ? key : getRequestKey(string, queryParams),
+                () -> fetchRawValue(string, queryParams));
+        if (duration > 0) {
+            cache.put(key, res);
+        }
+        return res;
+    }
+
     public String getRawValue(String string, MultivaluedMap<String, String> queryParams) {
         return getRawValue(string, queryParams, 0);
     }
@@ -208,6 +281,82 @@ public class APIClient {
         return getRawValue(string, null, 0);
     }
 
+    /**
+     * Asynchronous version of {@link #getRawValue}. The request is sent
+     * right away, without blocking the caller, so several requests can be in
+     * flight at once.
+     */
+    public CompletableFuture<String> getRawValueAsync(String string, MultivaluedMap<String, String> queryParams,
+            long duration) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture("");
+        }
+        if (snapshot.covers(string, queryParams)) {
+            String value = snapshot.peek(string);
+            if (value != null) {
+                return CompletableFuture.completedFuture(value);
+            }
+            return cache.loadAsync(string, () -> fetchRawValueAsync(string, null)).thenApply(v -> {
+                snapshot.add(string, v);
+                return v;
+            });
+        }
+        String key = getCacheKey(string, queryParams, duration);
+        String res = cache.getString(key, duration);
+        if (res != null) {
+            return CompletableFuture.completedFuture(res);
+        }
+        CompletableFuture<String> f = cache.loadAsync(key != null ? key : getRequestKey(string, queryParams),
+                () -> fetchRawValueAsync(string, queryParams));
+        if (duration > 0) {
+            f = f.thenApply(v -> {
+                cache.put(key, v);
+                return v;
+            });
+        }
+        return f;
+    }
+
+    public CompletableFuture<String> getRawValueAsync(String string, MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams, 0);
+    }
+
+    public CompletableFuture<String> getRawValueAsync(String string) {
+        return getRawValueAsync(string, null, 0);
+    }
+
+    public CompletableFuture<Integer> getIntValueAsync(String string, MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams).thenApply(Integer::parseInt);
+    }
+
+    public CompletableFuture<Long> getLongValueAsync(String string, MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams).thenApply(Long::parseLong);
+    }
+
+    public CompletableFuture<Double> getDoubleValueAsync(String string, MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams).thenApply(Double::parseDouble);
+    }
+
+    public CompletableFuture<Boolean> getBooleanValueAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams).thenApply(Boolean::parseBoolean);
+    }
+
+    /**
+     * Waits for the result of an asynchronous call, rethrowing failures the
+     * way the blocking accessors do.
+     */
+    public static <T> T waitFor(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     public String getStringValue(String string, MultivaluedMap<String, String> queryParams) {
         return getRawValue(string, queryParams).replaceAll("^\"|\"$", "");
     }
@@ -263,7 +412,16 @@ public class APIClient {
     }
 
     public List<String> getListStrValue(String string, MultivaluedMap<String, String> queryParams) {
-        JsonReader reader = getReader(string, queryParams);
+        return parseListStr(getRawValue(string, queryParams));
+    }
+
+    public CompletableFuture<List<String>> getListStrValueAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        return getRawValueAsync(string, queryParams).thenApply(this::parseListStr);
+    }
+
+    private List<String> parseListStr(String json) {
+        JsonReader reader = factory.createReader(new StringReader(json));
         JsonArray arr = reader.readArray();
         List<String> res = new ArrayList<String>(arr.size());
         for (int i = 0; i < arr.size(); i++) {
@@ -271,7 +429,6 @@ public class APIClient {
         }
         reader.close();
         return res;
-
     }
 
     public List<String> getListStrValue(String string) {
@@ -355,7 +512,19 @@ public class APIClient {
         if (string.equals("")) {
             return null;
         }
-        JsonReader reader = getReader(string, queryParams);
+        return parseMapStringListStr(getRawValue(string, queryParams));
+    }
+
+    public CompletableFuture<Map<String, List<String>>> getMapStringListStrValueAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getRawValueAsync(string, queryParams).thenApply(this::parseMapStringListStr);
+    }
+
+    private Map<String, List<String>> parseMapStringListStr(String json) {
+        JsonReader reader = factory.createReader(new StringReader(json));
         JsonArray arr = reader.readArray();
         Map<String, List<String>> map = new HashMap<String, List<String>>();
         for (int i = 0; i < arr.size(); i++) {
@@ -413,7 +582,19 @@ public class APIClient {
         if (string.equals("")) {
             return null;
         }
-        JsonReader reader = getReader(string, queryParams);
+        return parseMapStr(getRawValue(string, queryParams));
+    }
+
+    public CompletableFuture<Map<String, String>> getMapStrValueAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getRawValueAsync(string, queryParams).thenApply(this::parseMapStr);
+    }
+
+    private Map<String, String> parseMapStr(String json) {
+        JsonReader reader = factory.createReader(new StringReader(json));
         JsonArray arr = reader.readArray();
         Map<String, String> map = new LinkedHashMap<String, String>();
         for (int i = 0; i < arr.size(); i++) {
@@ -637,7 +818,18 @@ public class APIClient {
         if (string.equals("")) {
             return null;
         }
-        JsonReader reader = getReader(string, queryParams);
+        return parseJsonArray(getRawValue(string, queryParams));
+    }
+
+    public CompletableFuture<JsonArray> getJsonArrayAsync(String string, MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getRawValueAsync(string, queryParams).thenApply(this::parseJsonArray);
+    }
+
+    private JsonArray parseJsonArray(String json) {
+        JsonReader reader = factory.createReader(new StringReader(json));
         JsonArray res = reader.readArray();
         reader.close();
         return res;
@@ -670,7 +862,7 @@ public class APIClient {
             return null;
         }
         String key = getCacheKey(string, queryParams, duration);
-        JsonObject res = getJsonObjectFromCache(key, duration);
+        JsonObject res = cache.getJsonObject(key, duration);
         if (res != null) {
             return res;
         }
@@ -678,7 +870,7 @@ public class APIClient {
         res = reader.readObject();
         reader.close();
         if (duration > 0) {
-            cache.put(key, new CacheEntry(res));
+            cache.put(key, res);
         }
         return res;
     }
@@ -687,17 +879,56 @@ public class APIClient {
         return getJsonObj(string, queryParams, 0);
     }
 
-    public long[] getEstimatedHistogramAsLongArrValue(String string, MultivaluedMap<String, String> queryParams) {
-        JsonObject obj = getJsonObj(string, queryParams);
-        JsonArray arr = obj.getJsonArray("buckets");
-        if (arr == null) {
-            return new long[0];
+    public CompletableFuture<JsonObject> getJsonObjAsync(String string, MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
         }
-        long res[] = new long[arr.size()];
-        for (int i = 0; i < arr.size(); i++) {
-            res[i] = arr.getJsonNumber(i).longValue();
+        return getRawValueAsync(string, queryParams).thenApply(json -> {
+            try (JsonReader reader = factory.createReader(new StringReader(json))) {
+                return reader.readObject();
+            }
+        });
+    }
+
+    /**
+     * Reads a meter, histogram or timer payload without building a JSON tree.
+     */
+    public MetricData getMetricData(String string, MultivaluedMap<String, String> queryParams, long duration) {
+        if (string.equals("")) {
+            return null;
         }
-        return res;
+        if (snapshot.covers(string, queryParams)) {
+            return snapshot.getMetricData(string);
+        }
+        return MetricData.parse(getRawValue(string, queryParams, duration));
+    }
+
+    public MetricData getMetricData(String string) {
+        return getMetricData(string, null, 0);
+    }
+
+    public CompletableFuture<MetricData> getMetricDataAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (snapshot.covers(string, queryParams)) {
+            MetricData data = snapshot.peekMetricData(string);
+            if (data != null) {
+                return CompletableFuture.completedFuture(data);
+            }
+            return cache.loadAsync(string, () -> fetchRawValueAsync(string, null)).thenApply(v -> {
+                MetricData d = MetricData.parse(v);
+                snapshot.addMetricData(string, d);
+                return d;
+            });
+        }
+        return getRawValueAsync(string, queryParams).thenApply(MetricData::parse);
+    }
+
+    public long[] getEstimatedHistogramAsLongArrValue(String string, MultivaluedMap<String, String> queryParams) {
+        long[] res = getMetricData(string, queryParams, 0).getBuckets();
+        return res != null ? res : new long[0];
     }
 
     public long[] getEstimatedHistogramAsLongArrValue(String string) {
@@ -708,7 +939,19 @@ public class APIClient {
         if (string.equals("")) {
             return null;
         }
-        JsonReader reader = getReader(string, queryParams);
+        return parseMapStringDouble(getRawValue(string, queryParams));
+    }
+
+    public CompletableFuture<Map<String, Double>> getMapStringDoubleAsync(String string,
+            MultivaluedMap<String, String> queryParams) {
+        if (string.equals("")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getRawValueAsync(string, queryParams).thenApply(this::parseMapStringDouble);
+    }
+
+    private Map<String, Double> parseMapStringDouble(String json) {
+        JsonReader reader = factory.createReader(new StringReader(json));
         JsonArray arr = reader.readArray();
         Map<String, Double> map = new HashMap<String, Double>();
         for (int i = 0; i < arr.size(); i++) {
@@ -32,6 +32,16 @@ import org.yaml.snakeyaml.Yaml;
 public class APIConfig {
     private String address = "localhost";
     private String port = "10000";
+    private int maxConnections = 32;
+    private int maxConnectionsPerRoute = 16;
+    private int connectTimeout = 10000;
+    private int readTimeout = 0;
+    private int idleTimeout = 60000;
+    private int cacheMaxEntries = 10000;
+    private int cacheMaxTtl = 60000;
+    private int snapshotInterval = 0;
+    private int snapshotConcurrency = 8;
+    private String metricStore = "heap";
 
     public String getAddress() {
         return address;
@@ -45,6 +55,89 @@ public class APIConfig {
         return "http://" + address + ":" + port;
     }
 
+    /**
+     * @return the maximum number of pooled connections to the API server
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return the maximum number of pooled connections per route (host:port)
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return connect (and pool lease) timeout in milliseconds, 0 is infinite
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return socket read timeout in milliseconds, 0 is infinite. Some
+     *         operations (compaction, repair) block for a long time, so this
+     *         defaults to infinite.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return time in milliseconds an idle keep-alive connection is kept in
+     *         the pool before being closed
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the maximum number of responses kept in the {@link APICache}
+     */
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    /**
+     * @return upper bound in milliseconds for how long a cached response is
+     *         kept, regardless of the duration requested by readers
+     */
+    public int getCacheMaxTtl() {
+        return cacheMaxTtl;
+    }
+
+    /**
+     * @return interval in milliseconds at which the {@link MetricsSnapshot}
+     *         is refreshed, 0 disables the snapshot and metrics are read from
+     *         the API server on demand
+     */
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @return number of concurrent requests used to refresh the
+     *         {@link MetricsSnapshot}
+     */
+    public int getSnapshotConcurrency() {
+        return snapshotConcurrency;
+    }
+
+    /**
+     * @return where the {@link MetricStore} keeps the metric payloads of the
+     *         snapshot, "heap" or "offheap"
+     */
+    public String getMetricStore() {
+        return metricStore;
+    }
+
+    private static int getIntProperty(String name, int def) {
+        String value = System.getProperty(name, "");
+        return value.equals("") ? def : Integer.parseInt(value);
+    }
+
     private void readFile(String name) {
         System.out.println("Using config file: " + name);
         InputStream input;
@@ -107,5 +200,15 @@ public class APIConfig {
         if (!System.getProperty("apiport", "").equals("")) {
             port = System.getProperty("apiport", "10000");
         }
+        maxConnections = getIntProperty("apimaxconnections", maxConnections);
+        maxConnectionsPerRoute = getIntProperty("apimaxconnectionsperroute", maxConnectionsPerRoute);
+        connectTimeout = getIntProperty("apiconnecttimeout", connectTimeout);
+        readTimeout = getIntProperty("apireadtimeout", readTimeout);
+        idleTimeout = getIntProperty("apiidletimeout", idleTimeout);
+        cacheMaxEntries = getIntProperty("apicachemaxentries", cacheMaxEntries);
+        cacheMaxTtl = getIntProperty("apicachemaxttl", cacheMaxTtl);
+        snapshotInterval = getIntProperty("apisnapshotinterval", snapshotInterval);
+        snapshotConcurrency = getIntProperty("apisnapshotconcurrency", snapshotConcurrency);
+        metricStore = System.getProperty("apimetricstore", metricStore);
     }
 }
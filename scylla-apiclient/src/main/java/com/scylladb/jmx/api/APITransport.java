@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+
+/**
+ * Shared HTTP transport to the Scylla API server.
+ * <p>
+ * A single, thread safe Jersey {@link Client} is created on top of a bounded
+ * pool of keep-alive connections, so every request reuses an already open
+ * socket instead of bootstrapping a new client (and TCP connection) per call.
+ * </p>
+ * Note that a connection is only returned to the pool once the response
+ * entity has been fully read or the response closed.
+ */
+public class APITransport {
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final Client client;
+    private final WebTarget base;
+
+    public APITransport(APIConfig config) {
+        connectionManager = new PoolingHttpClientConnectionManager(-1, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        // Check half-closed connections before reusing them after being idle
+        connectionManager.setValidateAfterInactivity(1000);
+
+        RequestConfig requestConfig = RequestConfig.custom().setConnectionRequestTimeout(config.getConnectTimeout())
+                .build();
+
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.register(new JacksonJaxbJsonProvider());
+        clientConfig.connectorProvider(new ApacheConnectorProvider());
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+        clientConfig.property(ApacheClientProperties.REQUEST_CONFIG, requestConfig);
+        clientConfig.property(ClientProperties.CONNECT_TIMEOUT, config.getConnectTimeout());
+        clientConfig.property(ClientProperties.READ_TIMEOUT, config.getReadTimeout());
+        // The connector blocks a thread per asynchronous request, there is no
+        // point in having more of them than connections.
+        clientConfig.property(ClientProperties.ASYNC_THREADPOOL_SIZE, config.getMaxConnections());
+
+        client = ClientBuilder.newClient(clientConfig);
+        base = client.target(config.getBaseUrl());
+
+        startIdleEvictor(config.getIdleTimeout());
+    }
+
+    private void startIdleEvictor(long idleTimeout) {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        Thread t = new Thread(() -> {
+            for (;;) {
+                try {
+                    Thread.sleep(idleTimeout);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        }, "API connection evictor");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return a target for the given path on the API server
+     */
+    public WebTarget target(String path) {
+        return base.path(path);
+    }
+
+    /**
+     * @return number of connections currently in use
+     */
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * @return number of idle keep-alive connections in the pool
+     */
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * @return number of requests waiting for a free connection
+     */
+    public int getPendingConnections() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    public void close() {
+        client.close();
+        connectionManager.shutdown();
+    }
+}
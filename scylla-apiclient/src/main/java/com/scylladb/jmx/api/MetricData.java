@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Decoded meter, histogram or timer payload from the Scylla API server.
+ * <p>
+ * The payload is read with a streaming {@link JsonParser} directly into
+ * primitive fields and arrays, without building an intermediate
+ * {@link javax.json.JsonObject} tree or boxing each element of the
+ * (potentially large) <code>sample</code>, <code>buckets</code> and
+ * <code>bucket_offsets</code> arrays.
+ * </p>
+ * A timer is decoded into nested <code>meter</code> and <code>hist</code>
+ * objects, a histogram may either be sent as is or wrapped in a
+ * <code>hist</code> object. Missing numeric fields read as zero, missing
+ * arrays as <code>null</code>.
+ */
+public class MetricData {
+    private static final JsonParserFactory factory = Json.createParserFactory(null);
+    private static final long[] NO_VALUES = new long[0];
+    private static final double[] NO_RATES = new double[0];
+
+    private long count;
+    private long sum;
+    private long min;
+    private long max;
+    private double mean;
+    private double variance;
+    private double meanRate;
+    private double[] rates = NO_RATES;
+    private long[] sample;
+    private long[] buckets;
+    private long[] bucketOffsets;
+    private MetricData meter;
+    private MetricData hist;
+
+    public static MetricData parse(String json) {
+        return parse(new StringReader(json));
+    }
+
+    public static MetricData parse(Reader reader) {
+        try (JsonParser parser = factory.createParser(reader)) {
+            if (!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+                throw new JsonException("Expected a JSON object");
+            }
+            return readObject(parser);
+        }
+    }
+
+    private static MetricData readObject(JsonParser parser) {
+        MetricData res = new MetricData();
+        ScratchBuffer longs = null;
+        for (;;) {
+            Event e = parser.next();
+            if (e == Event.END_OBJECT) {
+                return res;
+            }
+            if (e != Event.KEY_NAME) {
+                throw new JsonException("Unexpected " + e);
+            }
+            String key = parser.getString();
+            e = parser.next();
+            switch (key) {
+            case "count":
+                res.count = getLong(parser, e);
+                break;
+            case "sum":
+                res.sum = getLong(parser, e);
+                break;
+            case "min":
+                res.min = getLong(parser, e);
+                break;
+            case "max":
+                res.max = getLong(parser, e);
+                break;
+            case "mean":
+                res.mean = getDouble(parser, e);
+                break;
+            case "variance":
+                res.variance = getDouble(parser, e);
+                break;
+            case "mean_rate":
+                res.meanRate = getDouble(parser, e);
+                break;
+            case "rates":
+                res.rates = readDoubles(parser, e);
+                break;
+            case "sample":
+            case "buckets":
+            case "bucket_offsets":
+                if (longs == null) {
+                    longs = new ScratchBuffer();
+                }
+                long[] values = readLongs(parser, e, longs);
+                if (key.equals("sample")) {
+                    res.sample = values;
+                } else if (key.equals("buckets")) {
+                    res.buckets = values;
+                } else {
+                    res.bucketOffsets = values;
+                }
+                break;
+            case "meter":
+                res.meter = e == Event.START_OBJECT ? readObject(parser) : skip(parser, e);
+                break;
+            case "hist":
+                res.hist = e == Event.START_OBJECT ? readObject(parser) : skip(parser, e);
+                break;
+            default:
+                skip(parser, e);
+                break;
+            }
+        }
+    }
+
+    private static long getLong(JsonParser parser, Event e) {
+        if (e != Event.VALUE_NUMBER) {
+            skip(parser, e);
+            return 0;
+        }
+        return parser.isIntegralNumber() ? parser.getLong() : (long) Double.parseDouble(parser.getString());
+    }
+
+    private static double getDouble(JsonParser parser, Event e) {
+        if (e != Event.VALUE_NUMBER) {
+            skip(parser, e);
+            return 0;
+        }
+        return parser.isIntegralNumber() ? parser.getLong() : Double.parseDouble(parser.getString());
+    }
+
+    private static long[] readLongs(JsonParser parser, Event e, ScratchBuffer buf) {
+        if (e != Event.START_ARRAY) {
+            return skip(parser, e);
+        }
+        buf.size = 0;
+        while ((e = parser.next()) != Event.END_ARRAY) {
+            buf.add(getLong(parser, e));
+        }
+        return buf.size == 0 ? NO_VALUES : Arrays.copyOf(buf.values, buf.size);
+    }
+
+    private static double[] readDoubles(JsonParser parser, Event e) {
+        if (e != Event.START_ARRAY) {
+            skip(parser, e);
+            return NO_RATES;
+        }
+        double[] res = new double[3];
+        int n = 0;
+        while ((e = parser.next()) != Event.END_ARRAY) {
+            if (n == res.length) {
+                res = Arrays.copyOf(res, n * 2);
+            }
+            res[n++] = getDouble(parser, e);
+        }
+        return n == res.length ? res : Arrays.copyOf(res, n);
+    }
+
+    /**
+     * Skips the value started by the given event, including any nested
+     * objects or arrays.
+     */
+    private static <T> T skip(JsonParser parser, Event e) {
+        int depth = 0;
+        for (;;) {
+            switch (e) {
+            case START_OBJECT:
+            case START_ARRAY:
+                ++depth;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                --depth;
+                break;
+            default:
+                break;
+            }
+            if (depth == 0) {
+                return null;
+            }
+            e = parser.next();
+        }
+    }
+
+    /**
+     * Growable scratch buffer, reused for all arrays of one payload.
+     */
+    private static class ScratchBuffer {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+    }
+
+    private static final int HAS_SAMPLE = 1;
+    private static final int HAS_BUCKETS = 2;
+    private static final int HAS_OFFSETS = 4;
+    private static final int HAS_METER = 8;
+    private static final int HAS_HIST = 16;
+    private static final int RATES_SHIFT = 8;
+    private static final int FIXED_FIELDS = 8;
+
+    /**
+     * @return number of longs written by {@link #encode}
+     */
+    int encodedLength() {
+        int n = FIXED_FIELDS + rates.length;
+        n += sample != null ? 1 + sample.length : 0;
+        n += buckets != null ? 1 + buckets.length : 0;
+        n += bucketOffsets != null ? 1 + bucketOffsets.length : 0;
+        n += meter != null ? meter.encodedLength() : 0;
+        n += hist != null ? hist.encodedLength() : 0;
+        return n;
+    }
+
+    /**
+     * Writes this payload as a flat record of longs (doubles by their bit
+     * pattern) at the current position of the buffer, see {@link #decode}.
+     */
+    void encode(LongBuffer out) {
+        int flags = rates.length << RATES_SHIFT;
+        flags |= sample != null ? HAS_SAMPLE : 0;
+        flags |= buckets != null ? HAS_BUCKETS : 0;
+        flags |= bucketOffsets != null ? HAS_OFFSETS : 0;
+        flags |= meter != null ? HAS_METER : 0;
+        flags |= hist != null ? HAS_HIST : 0;
+        out.put(flags).put(count).put(sum).put(min).put(max);
+        out.put(Double.doubleToRawLongBits(mean)).put(Double.doubleToRawLongBits(variance))
+                .put(Double.doubleToRawLongBits(meanRate));
+        for (double r : rates) {
+            out.put(Double.doubleToRawLongBits(r));
+        }
+        encodeLongs(out, sample);
+        encodeLongs(out, buckets);
+        encodeLongs(out, bucketOffsets);
+        if (meter != null) {
+            meter.encode(out);
+        }
+        if (hist != null) {
+            hist.encode(out);
+        }
+    }
+
+    /**
+     * Reads a record written by {@link #encode} from the current position of
+     * the buffer.
+     */
+    static MetricData decode(LongBuffer in) {
+        MetricData res = new MetricData();
+        int flags = (int) in.get();
+        res.count = in.get();
+        res.sum = in.get();
+        res.min = in.get();
+        res.max = in.get();
+        res.mean = Double.longBitsToDouble(in.get());
+        res.variance = Double.longBitsToDouble(in.get());
+        res.meanRate = Double.longBitsToDouble(in.get());
+        int nrates = flags >>> RATES_SHIFT;
+        if (nrates > 0) {
+            res.rates = new double[nrates];
+            for (int i = 0; i < nrates; i++) {
+                res.rates[i] = Double.longBitsToDouble(in.get());
+            }
+        }
+        res.sample = (flags & HAS_SAMPLE) != 0 ? decodeLongs(in) : null;
+        res.buckets = (flags & HAS_BUCKETS) != 0 ? decodeLongs(in) : null;
+        res.bucketOffsets = (flags & HAS_OFFSETS) != 0 ? decodeLongs(in) : null;
+        res.meter = (flags & HAS_METER) != 0 ? decode(in) : null;
+        res.hist = (flags & HAS_HIST) != 0 ? decode(in) : null;
+        return res;
+    }
+
+    private static void encodeLongs(LongBuffer out, long[] values) {
+        if (values != null) {
+            out.put(values.length).put(values);
+        }
+    }
+
+    private static long[] decodeLongs(LongBuffer in) {
+        int n = (int) in.get();
+        if (n == 0) {
+            return NO_VALUES;
+        }
+        long[] res = new long[n];
+        in.get(res);
+        return res;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return variance;
+    }
+
+    public double getMeanRate() {
+        return meanRate;
+    }
+
+    /**
+     * @return the one, five and fifteen minute rates, in that order
+     */
+    public double[] getRates() {
+        return rates;
+    }
+
+    public double getRate(int i) {
+        return i < rates.length ? rates[i] : 0;
+    }
+
+    /**
+     * @return the sampled values, or <code>null</code> if not present
+     */
+    public long[] getSample() {
+        return sample;
+    }
+
+    /**
+     * @return the estimated histogram bucket counts, or <code>null</code> if
+     *         not present
+     */
+    public long[] getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the estimated histogram bucket offsets, or <code>null</code>
+     *         if not present
+     */
+    public long[] getBucketOffsets() {
+        return bucketOffsets;
+    }
+
+    public boolean hasBuckets() {
+        return buckets != null;
+    }
+
+    /**
+     * @return the nested meter of a timer, or <code>null</code>
+     */
+    public MetricData getMeter() {
+        return meter;
+    }
+
+    /**
+     * @return the nested histogram of a timer, or <code>null</code>
+     */
+    public MetricData getHist() {
+        return hist;
+    }
+}
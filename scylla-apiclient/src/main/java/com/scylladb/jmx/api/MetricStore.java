@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Compact store of decoded metric payloads, keyed by metric id.
+ * <p>
+ * Only the {@link MetricsSnapshot} uses it, to keep the payloads it refreshes
+ * in place of their JSON text. Each read decodes a new {@link MetricData}, so
+ * what a reader builds from it is a separate copy.
+ * </p>
+ * <p>
+ * Each payload is kept as a single flat record of longs (see
+ * {@link MetricData#encode}) rather than as its JSON text or an object graph.
+ * By default every record is one <code>long[]</code> on the heap. With
+ * <code>apimetricstore=offheap</code> records are packed into direct
+ * {@link ByteBuffer} slabs instead, outside of the Java heap, so that
+ * thousands of histograms do not add to GC work at all.
+ * </p>
+ * Off-heap, a record is overwritten in place when the new payload fits in its
+ * slot, which it usually does since histograms keep their size. Otherwise it
+ * is moved to the end of the last slab and its old slot is wasted until the
+ * slabs are compacted, once more than half of the allocated space is wasted.
+ */
+public class MetricStore implements MetricStoreMBean {
+    // In longs, i.e. 1MB
+    static final int SLAB_SIZE = 1 << 17;
+    // Slots are rounded up so that records can grow a bit in place
+    private static final int SLOT_ALIGN = 16;
+
+    private final boolean offHeap;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int nextId;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int entries;
+
+    // Heap mode: one record per id
+    private long[][] records;
+
+    // Off-heap mode: slab index << 32 | offset (in longs) of each record
+    private final List<LongBuffer> slabs = new ArrayList<>();
+    private long[] location;
+    private int[] length;
+    private int[] capacity;
+    private int lastSlabUsed;
+
+    // In longs
+    private long allocated;
+    private long used;
+    private long wasted;
+    private long compactions;
+
+    public MetricStore(APIConfig config) {
+        this(config.getMetricStore().equalsIgnoreCase("offheap"));
+    }
+
+    MetricStore(boolean offHeap) {
+        this.offHeap = offHeap;
+        if (offHeap) {
+            location = new long[64];
+            length = new int[64];
+            capacity = new int[64];
+        } else {
+            records = new long[64][];
+        }
+    }
+
+    /**
+     * @return a new, empty metric id
+     */
+    public int allocate() {
+        lock.writeLock().lock();
+        try {
+            ++entries;
+            if (freeCount > 0) {
+                return freeIds[--freeCount];
+            }
+            int id = nextId++;
+            if (offHeap) {
+                if (id == location.length) {
+                    location = Arrays.copyOf(location, id * 2);
+                    length = Arrays.copyOf(length, id * 2);
+                    capacity = Arrays.copyOf(capacity, id * 2);
+                }
+            } else if (id == records.length) {
+                records = Arrays.copyOf(records, id * 2);
+            }
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the id and the space of its record. The id may be handed out
+     * again by {@link #allocate}.
+     */
+    public void free(int id) {
+        lock.writeLock().lock();
+        try {
+            if (offHeap) {
+                wasted += capacity[id];
+                used -= length[id];
+                capacity[id] = length[id] = 0;
+            } else if (records[id] != null) {
+                used -= records[id].length;
+                allocated -= records[id].length;
+                records[id] = null;
+            }
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+            }
+            freeIds[freeCount++] = id;
+            --entries;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the record of the given id.
+     */
+    public void put(int id, MetricData data) {
+        int n = data.encodedLength();
+        if (!offHeap) {
+            long[] record = new long[n];
+            data.encode(LongBuffer.wrap(record));
+            lock.writeLock().lock();
+            try {
+                long[] old = records[id];
+                int delta = n - (old != null ? old.length : 0);
+                used += delta;
+                allocated += delta;
+                records[id] = record;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (n > capacity[id]) {
+                wasted += capacity[id];
+                int cap = (n + SLOT_ALIGN - 1) / SLOT_ALIGN * SLOT_ALIGN;
+                location[id] = reserve(cap);
+                capacity[id] = cap;
+            }
+            used += n - length[id];
+            length[id] = n;
+            data.encode(view(slabs, location[id]));
+            if (wasted >= SLAB_SIZE && wasted > allocated / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the record of the given id, or <code>null</code> if none has
+     *         been put yet
+     */
+    public MetricData get(int id) {
+        lock.readLock().lock();
+        try {
+            if (offHeap) {
+                return length[id] > 0 ? MetricData.decode(view(slabs, location[id])) : null;
+            }
+            long[] record = records[id];
+            return record != null ? MetricData.decode(LongBuffer.wrap(record)) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static LongBuffer view(List<LongBuffer> slabs, long location) {
+        LongBuffer b = slabs.get((int) (location >>> 32)).duplicate();
+        b.position((int) location);
+        return b;
+    }
+
+    /**
+     * @return location of n free longs at the end of the last slab, adding
+     *         a new slab if needed
+     */
+    private long reserve(int n) {
+        int last = slabs.size() - 1;
+        if (last < 0 || slabs.get(last).capacity() - lastSlabUsed < n) {
+            int size = Math.max(SLAB_SIZE, n);
+            slabs.add(ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer());
+            allocated += size;
+            lastSlabUsed = 0;
+            ++last;
+        }
+        long res = (long) last << 32 | lastSlabUsed;
+        lastSlabUsed += n;
+        return res;
+    }
+
+    /**
+     * Copies all records into new slabs, dropping the wasted space. The old
+     * slabs are released once garbage collected.
+     */
+    private void compact() {
+        List<LongBuffer> old = new ArrayList<>(slabs);
+        slabs.clear();
+        allocated = 0;
+        wasted = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (capacity[id] == 0) {
+                continue;
+            }
+            LongBuffer src = view(old, location[id]);
+            src.limit(src.position() + length[id]);
+            location[id] = reserve(capacity[id]);
+            view(slabs, location[id]).put(src);
+        }
+        ++compactions;
+    }
+
+    private long read(LongSupplier stat) {
+        lock.readLock().lock();
+        try {
+            return stat.getAsLong();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getMode() {
+        return offHeap ? "offheap" : "heap";
+    }
+
+    @Override
+    public int getEntries() {
+        return (int) read(() -> entries);
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return read(() -> used) * Long.BYTES;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return read(() -> allocated) * Long.BYTES;
+    }
+
+    @Override
+    public long getWastedBytes() {
+        return read(() -> wasted) * Long.BYTES;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return offHeap ? getAllocatedBytes() : 0;
+    }
+
+    @Override
+    public long getHeapBytes() {
+        lock.readLock().lock();
+        try {
+            if (offHeap) {
+                return (long) location.length * (Long.BYTES + 2 * Integer.BYTES);
+            }
+            // Array headers included
+            return (long) records.length * Long.BYTES + entries * 16L + allocated * Long.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getSlabCount() {
+        return (int) read(slabs::size);
+    }
+
+    @Override
+    public long getCompactionCount() {
+        return read(() -> compactions);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+/**
+ * Memory footprint of the {@link MetricStore} holding the decoded metric
+ * payloads of the {@link MetricsSnapshot}.
+ */
+public interface MetricStoreMBean {
+    public static final String OBJECT_NAME = "com.scylladb.jmx:type=MetricStore";
+
+    /** Where records are kept, "heap" or "offheap" */
+    String getMode();
+
+    /** Number of metric records */
+    int getEntries();
+
+    /** Bytes taken by the metric records themselves */
+    long getUsedBytes();
+
+    /** Bytes allocated for metric records, including wasted space */
+    long getAllocatedBytes();
+
+    /** Bytes of off-heap slab space no longer used, until compacted */
+    long getWastedBytes();
+
+    /** Bytes of direct memory allocated for slabs */
+    long getOffHeapBytes();
+
+    /** Estimated bytes of Java heap used by the store */
+    long getHeapBytes();
+
+    /** Number of off-heap slabs */
+    int getSlabCount();
+
+    /** Number of times the off-heap slabs were compacted */
+    long getCompactionCount();
+}
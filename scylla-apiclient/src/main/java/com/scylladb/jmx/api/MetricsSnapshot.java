@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.SEVERE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * In-memory snapshot of the metric values read from the API server.
+ * <p>
+ * Every metric attribute is a separate REST call, so scraping all metrics of
+ * a node with many tables means tens of thousands of requests per scrape.
+ * With the snapshot enabled, metric endpoints (paths containing
+ * <code>/metrics/</code>) are fetched on first read, and from then on
+ * refreshed together, once per interval, by a bounded number of concurrent
+ * requests. Reads are served from memory in between.
+ * </p>
+ * <p>
+ * Values not read for {@value #IDLE_INTERVALS} intervals are dropped, so only
+ * metrics somebody is actually looking at are refreshed.
+ * </p>
+ * Meter, histogram and timer payloads read through {@link #getMetricData} are
+ * not kept as JSON text, but decoded into the {@link MetricStore}.
+ */
+public class MetricsSnapshot implements MetricsSnapshotMBean {
+    private static final Logger logger = Logger.getLogger(MetricsSnapshot.class.getName());
+
+    static final int IDLE_INTERVALS = 10;
+
+    private static class Entry {
+        // Raw value, if read as such
+        private volatile String value;
+        // Id in the metric store, if read as metric data
+        private volatile int id = -1;
+        private volatile long lastRead = System.currentTimeMillis();
+    }
+
+    private final long interval;
+    private final int concurrency;
+    private final Function<String, String> loader;
+    private final MetricStore store;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final LongAdder failureCount = new LongAdder();
+    private volatile long lastRefresh = -1;
+    private volatile long lastRefreshDuration;
+
+    private ExecutorService workers;
+
+    MetricsSnapshot(APIConfig config, MetricStore store, Function<String, String> loader) {
+        this.interval = config.getSnapshotInterval();
+        this.concurrency = Math.max(1, config.getSnapshotConcurrency());
+        this.loader = loader;
+        this.store = store;
+        if (interval > 0) {
+            start();
+        }
+    }
+
+    private static ExecutorService newDaemonPool(int threads, String name) {
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void start() {
+        workers = newDaemonPool(concurrency, "Metrics snapshot");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Metrics snapshot refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if the given request is served from the snapshot
+     */
+    boolean covers(String path, MultivaluedMap<String, String> queryParams) {
+        return interval > 0 && queryParams == null && path.contains("/metrics/");
+    }
+
+    /**
+     * @return the snapshot value for the given path, reading it from the API
+     *         server if it is not part of the snapshot yet
+     */
+    String get(String path) {
+        String value = peek(path);
+        if (value == null) {
+            value = loader.apply(path);
+            add(path, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the snapshot value for the given path, or <code>null</code> if
+     *         it is not part of the snapshot yet
+     */
+    String peek(String path) {
+        Entry e = entries.get(path);
+        if (e == null) {
+            return null;
+        }
+        e.lastRead = System.currentTimeMillis();
+        return e.value;
+    }
+
+    /**
+     * Adds a value read from the API server to the snapshot.
+     */
+    void add(String path, String value) {
+        entries.computeIfAbsent(path, p -> new Entry()).value = value;
+    }
+
+    /**
+     * @return the snapshot payload for the given path, reading it from the
+     *         API server if it is not part of the snapshot yet
+     */
+    MetricData getMetricData(String path) {
+        MetricData data = peekMetricData(path);
+        if (data == null) {
+            data = MetricData.parse(loader.apply(path));
+            addMetricData(path, data);
+        }
+        return data;
+    }
+
+    /**
+     * @return the snapshot payload for the given path, or <code>null</code>
+     *         if it is not part of the snapshot yet
+     */
+    MetricData peekMetricData(String path) {
+        Entry e = entries.get(path);
+        if (e == null) {
+            return null;
+        }
+        e.lastRead = System.currentTimeMillis();
+        if (e.id < 0) {
+            String value = e.value;
+            return value != null ? MetricData.parse(value) : null;
+        }
+        MetricData data = store.get(e.id);
+        // The id is only freed, and maybe reused, after the entry is dropped
+        return entries.get(path) == e ? data : null;
+    }
+
+    /**
+     * Adds a payload read from the API server to the snapshot.
+     */
+    void addMetricData(String path, MetricData data) {
+        entries.compute(path, (p, e) -> {
+            if (e == null) {
+                e = new Entry();
+            }
+            if (e.id < 0) {
+                e.id = store.allocate();
+            }
+            store.put(e.id, data);
+            return e;
+        });
+    }
+
+    private void refresh(Entry e, String path) {
+        String value = loader.apply(path);
+        if (e.id >= 0) {
+            store.put(e.id, MetricData.parse(value));
+        }
+        if (e.value != null) {
+            e.value = value;
+        }
+    }
+
+    void refresh() {
+        try {
+            long start = System.currentTimeMillis();
+            long idle = start - IDLE_INTERVALS * interval;
+            List<Entry> active = new ArrayList<>(entries.size());
+            List<String> paths = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getValue().lastRead < idle) {
+                    if (entries.remove(e.getKey(), e.getValue()) && e.getValue().id >= 0) {
+                        store.free(e.getValue().id);
+                    }
+                } else {
+                    paths.add(e.getKey());
+                    active.add(e.getValue());
+                }
+            }
+
+            // Each worker picks the next value to refresh until done
+            AtomicInteger next = new AtomicInteger();
+            Runnable worker = () -> {
+                for (int i = next.getAndIncrement(); i < active.size(); i = next.getAndIncrement()) {
+                    try {
+                        refresh(active.get(i), paths.get(i));
+                    } catch (RuntimeException ex) {
+                        // Keep serving the previous value
+                        failureCount.increment();
+                        logger.log(FINE, "Could not refresh " + paths.get(i), ex);
+                    }
+                }
+            };
+            int n = Math.min(concurrency, active.size());
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[n];
+            for (int i = 0; i < n; i++) {
+                futures[i] = CompletableFuture.runAsync(worker, workers);
+            }
+            CompletableFuture.allOf(futures).join();
+
+            lastRefreshDuration = System.currentTimeMillis() - start;
+            lastRefresh = start;
+            refreshCount.incrementAndGet();
+        } catch (Throwable t) {
+            logger.log(SEVERE, "Metrics snapshot refresh failed", t);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    @Override
+    public long getRefreshInterval() {
+        return interval;
+    }
+
+    @Override
+    public long getAge() {
+        long last = lastRefresh;
+        return last < 0 ? -1 : System.currentTimeMillis() - last;
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public long getLastRefreshDuration() {
+        return lastRefreshDuration;
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+}
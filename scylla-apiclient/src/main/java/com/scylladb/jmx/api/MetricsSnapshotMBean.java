@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+/**
+ * Statistics of the {@link APIClient} metrics snapshot.
+ */
+public interface MetricsSnapshotMBean {
+    public static final String OBJECT_NAME = "com.scylladb.jmx:type=MetricsSnapshot";
+
+    /** Whether metrics are served from the snapshot */
+    boolean isEnabled();
+
+    /** Configured refresh interval in milliseconds */
+    long getRefreshInterval();
+
+    /**
+     * Milliseconds since the last completed refresh started, i.e. the age of
+     * the oldest value served. -1 if no refresh has completed yet.
+     */
+    long getAge();
+
+    /** Number of metric values currently kept in the snapshot */
+    int getSize();
+
+    /** Number of completed refreshes */
+    long getRefreshCount();
+
+    /** Duration in milliseconds of the last refresh */
+    long getLastRefreshDuration();
+
+    /** Number of values that could not be refreshed and were kept as is */
+    long getFailureCount();
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the {@link MetricsSnapshot} of an {@link APIClient} from an
+ * in-process stub of the REST API, which answers every request with the
+ * number of requests it got for that path so far, as a histogram count for
+ * histogram paths.
+ */
+@SuppressWarnings("restriction")
+public class MetricsSnapshotTest {
+    private static final String METRIC = "/column_family/metrics/read/ks:t";
+    private static final String HISTOGRAM = "/column_family/metrics/write_latency/histogram/ks:t";
+    private static final long INTERVAL = 20;
+    private static final long TIMEOUT = 10000;
+
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private APIClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        System.setProperty("apiaddress", "127.0.0.1");
+        System.setProperty("apiport", Integer.toString(server.getAddress().getPort()));
+        System.setProperty("apisnapshotinterval", Long.toString(INTERVAL));
+        client = new APIClient(new APIConfig());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        System.clearProperty("apiaddress");
+        System.clearProperty("apiport");
+        System.clearProperty("apisnapshotinterval");
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        long n = requests.computeIfAbsent(ex.getRequestURI().getPath(), p -> new AtomicLong()).incrementAndGet();
+        String value = ex.getRequestURI().getPath().contains("histogram") ? "{\"count\":" + n + "}"
+                : Long.toString(n);
+        byte[] body = value.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testCovers() {
+        MetricsSnapshot snapshot = client.getSnapshot();
+        assertTrue(snapshot.isEnabled());
+        assertTrue(snapshot.covers(METRIC, null));
+        assertFalse(snapshot.covers("/storage_service/load", null));
+        MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
+        queryParams.add("split_output", "true");
+        assertFalse(snapshot.covers(METRIC, queryParams));
+    }
+
+    @Test
+    public void testRefresh() throws InterruptedException {
+        MetricsSnapshot snapshot = client.getSnapshot();
+        long first = client.getLongValue(METRIC);
+        assertEquals(1, snapshot.getSize());
+
+        // Refreshed in the background, read from memory
+        long refreshes = snapshot.getRefreshCount();
+        await(() -> snapshot.getRefreshCount() >= refreshes + 2);
+        long refreshed = client.getLongValue(METRIC);
+        assertTrue(refreshed > first);
+        assertTrue(requests.get(METRIC).get() >= refreshed);
+        long age = snapshot.getAge();
+        assertTrue(age >= 0 && age < TIMEOUT);
+        assertEquals(0, snapshot.getFailureCount());
+
+        // Not covered, so read from the API server every time
+        long load = client.getLongValue("/storage_service/load");
+        assertEquals(load + 1, client.getLongValue("/storage_service/load"));
+        assertEquals(1, snapshot.getSize());
+    }
+
+    @Test
+    public void testMetricData() throws InterruptedException {
+        MetricsSnapshot snapshot = client.getSnapshot();
+        assertEquals(1, client.getMetricData(HISTOGRAM).getCount());
+        await(() -> client.getMetricData(HISTOGRAM).getCount() > 1);
+        assertEquals(1, snapshot.getSize());
+        assertEquals(1, client.getMetricStore().getEntries());
+    }
+
+    @Test
+    public void testIdleEviction() throws InterruptedException {
+        MetricsSnapshot snapshot = client.getSnapshot();
+        client.getLongValue(METRIC);
+        client.getMetricData(HISTOGRAM);
+        assertEquals(2, snapshot.getSize());
+
+        // Dropped after not being read for ten intervals
+        await(() -> snapshot.getSize() == 0);
+        assertEquals(0, client.getMetricStore().getEntries());
+        long requested = requests.get(METRIC).get();
+        Thread.sleep(INTERVAL * 3);
+        assertEquals(requested, requests.get(METRIC).get());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.api.APIConfig;
+
+/**
+ * Round trip cost of {@link APIClient#getRawValue} against the REST stub,
+ * bypassing and hitting the response cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class APIClientBenchmark {
+    @Param({ "/storage_service/load", "/column_family/metrics/read_latency/moving_average_histogram/ks0:t0" })
+    private String path;
+
+    private RestStub stub;
+    private APIClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        stub = new RestStub(1);
+        client = new APIClient(new APIConfig());
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.getTransport().close();
+        stub.stop();
+    }
+
+    @Benchmark
+    public String getRawValue() {
+        return client.getRawValue(path);
+    }
+
+    @Benchmark
+    public String getRawValueCached() {
+        return client.getRawValue(path, 60000);
+    }
+}
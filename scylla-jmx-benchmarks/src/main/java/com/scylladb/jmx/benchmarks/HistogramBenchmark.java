@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.metrics.MetricsRegistry;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxHistogramMBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.api.APIConfig;
+import com.scylladb.jmx.api.MetricData;
+
+/**
+ * Percentile reads from a histogram backed by either a value sample
+ * (BufferSamples) or estimated histogram buckets (EstimatedHistogram), and
+ * decoding of the respective payloads.
+ * <p>
+ * The histogram refreshes from the REST stub at most every 50ms, so the
+ * numbers include the amortized cost of fetching, decoding and preparing a
+ * new snapshot.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistogramBenchmark {
+    @Param({ "sample", "estimated" })
+    private String kind;
+
+    private RestStub stub;
+    private APIClient client;
+    private JmxHistogramMBean histogram;
+    private String url;
+
+    @Setup
+    public void setup() throws Exception {
+        stub = new RestStub(1);
+        client = new APIClient(new APIConfig());
+        MetricsRegistry registry = new MetricsRegistry(client, null);
+        url = kind.equals("sample") ? "/bench/histogram" : "/bench/estimated_histogram";
+        histogram = (JmxHistogramMBean) registry.histogram(url, false);
+        histogram.getCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.getTransport().close();
+        stub.stop();
+    }
+
+    /**
+     * Decoding of a cached payload, without the HTTP round trip.
+     */
+    @Benchmark
+    public MetricData decode() {
+        return client.getMetricData(url, null, 60000);
+    }
+
+    @Benchmark
+    public double percentile() {
+        return histogram.get99thPercentile();
+    }
+
+    @Benchmark
+    public void allPercentiles(Blackhole bh) {
+        bh.consume(histogram.get50thPercentile());
+        bh.consume(histogram.get75thPercentile());
+        bh.consume(histogram.get95thPercentile());
+        bh.consume(histogram.get98thPercentile());
+        bh.consume(histogram.get99thPercentile());
+        bh.consume(histogram.get999thPercentile());
+    }
+}
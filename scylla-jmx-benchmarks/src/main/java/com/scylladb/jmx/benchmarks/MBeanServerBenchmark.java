@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk attribute reads through the API MBean server, as done by monitoring
+ * agents scraping table metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MBeanServerBenchmark {
+    private static final String[] TIMER_ATTRIBUTES = { "Count", "Min", "Max", "Mean", "50thPercentile",
+            "99thPercentile", "OneMinuteRate" };
+    private static final String[] TABLE_ATTRIBUTES = { "ColumnFamilyName", "MinimumCompactionThreshold",
+            "MaximumCompactionThreshold" };
+
+    private RestStub stub;
+    private MBeanServer server;
+    private ObjectName timer;
+    private ObjectName table;
+
+    @Setup
+    public void setup() throws Exception {
+        stub = new RestStub(10);
+        server = Servers.create();
+        timer = new ObjectName("org.apache.cassandra.metrics:type=Table,keyspace=ks0,scope=t0,name=ReadLatency");
+        table = new ObjectName("org.apache.cassandra.db:type=ColumnFamilies,keyspace=ks0,columnfamily=t0");
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    public AttributeList getTimerAttributes() throws Exception {
+        return server.getAttributes(timer, TIMER_ATTRIBUTES);
+    }
+
+    @Benchmark
+    public AttributeList getTableAttributes() throws Exception {
+        return server.getAttributes(table, TABLE_ATTRIBUTES);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal in-process stand in for the Scylla REST API, so benchmarks measure
+ * the JMX side rather than a real server.
+ * <p>
+ * Serves a table listing of the requested size, sampled and estimated
+ * histograms, meters and timers, and "0" for everything else.
+ * </p>
+ * Starting the stub points the API client configuration (the
+ * <code>apiaddress</code> and <code>apiport</code> system properties) at it,
+ * so it must be started before the first {@link com.scylladb.jmx.main.Main}
+ * or {@link com.scylladb.jmx.api.APIConfig} access.
+ */
+@SuppressWarnings("restriction")
+public class RestStub {
+    public static final int TABLES_PER_KEYSPACE = 100;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] tables;
+    private final byte[] sampleHistogram;
+    private final byte[] estimatedHistogram;
+    private final byte[] meter;
+    private final byte[] timer;
+
+    public RestStub(int numTables) throws IOException {
+        tables = utf8(tableList(numTables));
+        Random r = new Random(4711);
+        String hist = sampleHistogram(r, 1024);
+        sampleHistogram = utf8(hist);
+        estimatedHistogram = utf8(estimatedHistogram(r, 90));
+        String m = "{\"rates\":[1.5,2.5,3.5],\"mean_rate\":4.25,\"count\":4711}";
+        meter = utf8(m);
+        timer = utf8("{\"meter\":" + m + ",\"hist\":" + hist + "}");
+
+        // Otherwise Nagle and delayed ACKs add ~40ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+
+        System.setProperty("apiaddress", "127.0.0.1");
+        System.setProperty("apiport", Integer.toString(getPort()));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        byte[] body = response(ex.getRequestURI().getPath());
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private byte[] response(String path) {
+        if (path.equals("/column_family/") || path.equals("/column_family")) {
+            return tables;
+        }
+        if (path.startsWith("/stream_manager/") && path.length() == "/stream_manager/".length()) {
+            return utf8("[]");
+        }
+        if (path.contains("estimated")) {
+            return estimatedHistogram;
+        }
+        if (path.contains("moving_average_histogram")) {
+            return timer;
+        }
+        if (path.contains("histogram")) {
+            return sampleHistogram;
+        }
+        if (path.contains("moving_avrage") || path.contains("bytes_compacted") || path.contains("total_compactions")) {
+            return meter;
+        }
+        return utf8("0");
+    }
+
+    private static String tableList(int n) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"ks\":\"").append(keyspace(i)).append("\",\"cf\":\"").append(table(i))
+                    .append("\",\"type\":\"ColumnFamilies\"}");
+        }
+        return sb.append(']').toString();
+    }
+
+    public static String keyspace(int i) {
+        return "ks" + (i / TABLES_PER_KEYSPACE);
+    }
+
+    public static String table(int i) {
+        return "t" + i;
+    }
+
+    private static String sampleHistogram(Random r, int n) {
+        StringBuilder sb = new StringBuilder();
+        long min = Long.MAX_VALUE, max = 0, sum = 0;
+        sb.append("\"sample\":[");
+        for (int i = 0; i < n; i++) {
+            long v = 100 + (long) Math.abs(r.nextGaussian() * 1000);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(v);
+        }
+        sb.append(']');
+        return "{\"count\":" + n + ",\"sum\":" + sum + ",\"min\":" + min + ",\"max\":" + max + ",\"mean\":"
+                + ((double) sum / n) + ",\"variance\":1000.0," + sb + "}";
+    }
+
+    private static String estimatedHistogram(Random r, int n) {
+        StringBuilder offsets = new StringBuilder();
+        StringBuilder buckets = new StringBuilder();
+        long last = 1;
+        for (int i = 0; i < n; i++) {
+            long next = Math.round(last * 1.2);
+            last = next == last ? last + 1 : next;
+            if (i > 0) {
+                offsets.append(',');
+                buckets.append(',');
+            }
+            offsets.append(last);
+            buckets.append(r.nextInt(1000));
+        }
+        // The trailing overflow bucket
+        buckets.append(",0");
+        return "{\"bucket_offsets\":[" + offsets + "],\"buckets\":[" + buckets + "]}";
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
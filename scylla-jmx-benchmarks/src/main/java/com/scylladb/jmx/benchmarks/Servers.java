@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import com.scylladb.jmx.utils.APIBuilder;
+
+/**
+ * Creates an {@link MBeanServer} the way the JMX server does, through
+ * {@link APIBuilder}, with all tables served by the stub registered.
+ */
+class Servers {
+    static MBeanServer create() {
+        // Keep background table discovery from interfering with measurements
+        System.setProperty("tablediscoveryinterval", Long.toString(TimeUnit.HOURS.toMillis(1)));
+        System.setProperty("javax.management.builder.initial", APIBuilder.class.getName());
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        // forces registration of all tables
+        server.queryNames(null, null);
+        return server;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.benchmarks;
+
+import static com.scylladb.jmx.benchmarks.RestStub.keyspace;
+import static com.scylladb.jmx.benchmarks.RestStub.table;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Table metric queries through the MBean server, and thus the table
+ * repository, with a large number of registered tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TableRepositoryBenchmark {
+    @Param({ "10000" })
+    private int tables;
+
+    private RestStub stub;
+    private MBeanServer server;
+
+    private ObjectName keyspacePattern;
+    private ObjectName tablePattern;
+    private ObjectName metricPattern;
+    private ObjectName exactName;
+
+    @Setup
+    public void setup() throws Exception {
+        stub = new RestStub(tables);
+        server = Servers.create();
+
+        int i = tables / 2;
+        String domain = "org.apache.cassandra.metrics:type=Table";
+        keyspacePattern = new ObjectName(domain + ",keyspace=" + keyspace(i) + ",*");
+        tablePattern = new ObjectName(domain + ",keyspace=" + keyspace(i) + ",scope=" + table(i) + ",*");
+        metricPattern = new ObjectName(domain + ",name=ReadLatency,*");
+        exactName = new ObjectName(domain + ",keyspace=" + keyspace(i) + ",scope=" + table(i) + ",name=ReadLatency");
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    public Set<ObjectName> queryKeyspace() {
+        return server.queryNames(keyspacePattern, null);
+    }
+
+    @Benchmark
+    public Set<ObjectName> queryTable() {
+        return server.queryNames(tablePattern, null);
+    }
+
+    @Benchmark
+    public Set<ObjectName> queryMetric() {
+        return server.queryNames(metricPattern, null);
+    }
+
+    @Benchmark
+    public Set<ObjectName> queryExact() {
+        return server.queryNames(exactName, null);
+    }
+}
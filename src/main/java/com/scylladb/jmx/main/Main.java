@@ -9,6 +9,7 @@ import static java.util.Arrays.asList;
 import java.lang.reflect.Constructor;
 
 import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.compaction.CompactionManager;
@@ -22,9 +23,14 @@ import org.apache.cassandra.service.StorageProxy;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.streaming.StreamManager;
 
+import com.scylladb.jmx.api.APICacheMBean;
 import com.scylladb.jmx.api.APIClient;
 import com.scylladb.jmx.api.APIConfig;
+import com.scylladb.jmx.api.MetricStoreMBean;
+import com.scylladb.jmx.api.MetricsSnapshotMBean;
 import com.scylladb.jmx.metrics.APIMBean;
+import com.scylladb.jmx.metrics.PrometheusExporter;
+import com.scylladb.jmx.utils.APIMBeanServer;
 
 public class Main {
     // todo: command line options. Make us an agent class (also)
@@ -35,25 +41,46 @@ public class Main {
         System.out.println("Connecting to " + config.getBaseUrl());
         System.out.println("Starting the JMX server");
 
+        Startup startup = Startup.getInstance();
+        long start = System.nanoTime();
         MBeanServer server = getPlatformMBeanServer();
+        startup.phase("MBeanServer", start);
         for (Class<? extends APIMBean> clazz : asList(StorageService.class, StorageProxy.class, MessagingService.class,
                 CommitLog.class, Gossiper.class, EndpointSnitchInfo.class, FailureDetector.class, CacheService.class,
                 CompactionManager.class, GCInspector.class, StreamManager.class)) {
+            start = System.nanoTime();
             Constructor<? extends APIMBean> c = clazz.getDeclaredConstructor(APIClient.class);
             APIMBean m = c.newInstance(client);
             server.registerMBean(m, null);
+            startup.phase(clazz.getSimpleName(), start);
         }
+        server.registerMBean(client.getCache(), new ObjectName(APICacheMBean.OBJECT_NAME));
+        server.registerMBean(client.getSnapshot(), new ObjectName(MetricsSnapshotMBean.OBJECT_NAME));
+        server.registerMBean(client.getMetricStore(), new ObjectName(MetricStoreMBean.OBJECT_NAME));
+        server.registerMBean(startup, new ObjectName(StartupMBean.OBJECT_NAME));
 
+        start = System.nanoTime();
         try {
             // forces check for dynamically created mbeans
-            server.queryNames(null, null);
+            if (server instanceof APIMBeanServer) {
+                ((APIMBeanServer) server).checkRegistrations();
+            } else {
+                server.queryNames(null, null);
+            }
         } catch (IllegalStateException e) {
             // ignore this. Just means we started before scylla.
         }
+        startup.phase("DynamicMBeans", start);
+        startup.ready();
 
         String jmxPort = System.getProperty("com.sun.management.jmxremote.port");
         System.out.println("JMX is enabled to receive remote connections on port: " + jmxPort);
 
+        PrometheusExporter exporter = PrometheusExporter.startFromSystemProperties();
+        if (exporter != null) {
+            System.out.println("Prometheus metrics are served on " + exporter.getAddress() + PrometheusExporter.PATH);
+        }
+
         for (;;) {
             Thread.sleep(Long.MAX_VALUE);
         }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.main;
+
+import static java.util.Collections.synchronizedMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Startup profile of the JMX proxy: the duration of each phase of
+ * {@link Main#main}, plus running totals of the (un)registration work done
+ * for dynamically created MBeans, which also happens after startup.
+ */
+public class Startup implements StartupMBean {
+    private static final Logger logger = Logger.getLogger(Startup.class.getName());
+
+    /**
+     * Accumulated count and duration of one kind of operation.
+     */
+    public static class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * Adds one operation started at the given {@link System#nanoTime()}.
+         */
+        public void add(long start) {
+            count.increment();
+            nanos.add(System.nanoTime() - start);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getDuration() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+        }
+    }
+
+    public static final Timing metricsRegistration = new Timing();
+    public static final Timing tableChecks = new Timing();
+    public static final Timing streamingChecks = new Timing();
+
+    private static final Startup instance = new Startup();
+
+    private final long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Map<String, Long> phases = synchronizedMap(new LinkedHashMap<>());
+    private volatile long readyTime = -1;
+
+    public static Startup getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records a startup phase started at the given {@link System#nanoTime()}.
+     */
+    public void phase(String name, long start) {
+        phases.merge(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Long::sum);
+    }
+
+    /**
+     * Marks the proxy as ready and logs the profile as one line of
+     * key=value pairs.
+     */
+    public void ready() {
+        readyTime = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder("startup");
+        sb.append(" total_ms=").append(getStartupDuration());
+        synchronized (phases) {
+            for (Map.Entry<String, Long> e : phases.entrySet()) {
+                sb.append(' ').append(e.getKey()).append("_ms=").append(e.getValue());
+            }
+        }
+        sb.append(" metrics_registrations=").append(metricsRegistration.getCount());
+        sb.append(" metrics_registration_ms=").append(metricsRegistration.getDuration());
+        sb.append(" table_check_ms=").append(tableChecks.getDuration());
+        sb.append(" streaming_check_ms=").append(streamingChecks.getDuration());
+        logger.info(sb.toString());
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    @Override
+    public long getReadyTime() {
+        return readyTime;
+    }
+
+    @Override
+    public long getStartupDuration() {
+        long ready = readyTime;
+        return ready < 0 ? -1 : ready - startTime;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseDurations() {
+        synchronized (phases) {
+            return new LinkedHashMap<>(phases);
+        }
+    }
+
+    @Override
+    public long getMetricsRegistrationCount() {
+        return metricsRegistration.getCount();
+    }
+
+    @Override
+    public long getMetricsRegistrationDuration() {
+        return metricsRegistration.getDuration();
+    }
+
+    @Override
+    public long getTableCheckCount() {
+        return tableChecks.getCount();
+    }
+
+    @Override
+    public long getTableCheckDuration() {
+        return tableChecks.getDuration();
+    }
+
+    @Override
+    public long getStreamingCheckCount() {
+        return streamingChecks.getCount();
+    }
+
+    @Override
+    public long getStreamingCheckDuration() {
+        return streamingChecks.getDuration();
+    }
+}
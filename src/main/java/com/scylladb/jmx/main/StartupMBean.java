@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.main;
+
+import java.util.Map;
+
+/**
+ * Where the time went while starting the JMX proxy.
+ */
+public interface StartupMBean {
+    public static final String OBJECT_NAME = "com.scylladb.jmx:type=Startup";
+
+    /** Time (ms since epoch) the JVM was started */
+    long getStartTime();
+
+    /** Time (ms since epoch) the proxy was ready, -1 if it is not yet */
+    long getReadyTime();
+
+    /** Milliseconds from JVM start until the proxy was ready, -1 if it is not yet */
+    long getStartupDuration();
+
+    /** Duration in milliseconds of each startup phase, in order */
+    Map<String, Long> getPhaseDurations();
+
+    /** Number of metrics (un)registrations of an MBean, e.g. per table */
+    long getMetricsRegistrationCount();
+
+    /** Total milliseconds spent (un)registering metrics, summed over threads */
+    long getMetricsRegistrationDuration();
+
+    /** Number of table registration checks */
+    long getTableCheckCount();
+
+    /** Total milliseconds spent checking table registrations */
+    long getTableCheckDuration();
+
+    /** Number of streaming metrics registration checks */
+    long getStreamingCheckCount();
+
+    /** Total milliseconds spent checking streaming metrics registrations */
+    long getStreamingCheckDuration();
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.metrics;
+
+import static java.util.logging.Level.FINE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import com.sun.jmx.mbeanserver.JmxMBeanServer;
+
+/**
+ * Keeps a set of dynamically created MBeans (e.g. one per table) registered
+ * in a {@link JmxMBeanServer}.
+ * <p>
+ * The set of names is fetched at most once per refresh interval, and
+ * refreshed in the background so lookups do not have to wait for it. A lookup
+ * for a name not (yet) known can force a refresh, but forced refreshes are
+ * rate limited, so probing for names that do not exist is cheap. Each refresh
+ * only (un)registers the names that were added or removed since the previous
+ * one.
+ * </p>
+ * <p>
+ * The background refresh only runs while the set is being used: it stops
+ * after {@value #IDLE_INTERVALS} intervals without any lookup, and starts
+ * again with the next one.
+ * </p>
+ * Many new MBeans (e.g. all tables at startup) are registered by up to
+ * "registrationthreads" threads in parallel.
+ */
+public class MBeanDiscovery implements MBeanDiscoveryMBean {
+    private static final Logger logger = Logger.getLogger(MBeanDiscovery.class.getName());
+
+    private static final int REGISTRATION_THREADS = Math.max(1,
+            Integer.getInteger("registrationthreads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+    // Below this, registering in parallel is not worth the hand off
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    static final int IDLE_INTERVALS = 10;
+
+    private static final ExecutorService registrationExecutor = newRegistrationExecutor(REGISTRATION_THREADS);
+
+    private static ExecutorService newRegistrationExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "MBean registration");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @FunctionalInterface
+    public interface Lister {
+        /**
+         * @return all {@link ObjectName}s that should currently be bound
+         */
+        Set<ObjectName> list() throws MalformedObjectNameException;
+    }
+
+    private final String name;
+    private final JmxMBeanServer server;
+    private final Lister lister;
+    private final Function<ObjectName, Object> generator;
+    private final long interval;
+    private final long throttle;
+
+    // Only replaced while holding the lock
+    private volatile Set<ObjectName> registered = Collections.emptySet();
+
+    private volatile long lastRefresh;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    // Both guarded by tickerLock
+    private final Object tickerLock = new Object();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> ticker;
+    private volatile long lastRefreshDuration;
+    private volatile long version;
+    private final LongAdder totalRefreshDuration = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    /**
+     * @param name
+     *            name of the discovered set, used for naming this MBean
+     * @param server
+     *            the {@link JmxMBeanServer} to register MBeans in
+     * @param lister
+     *            fetches all {@link ObjectName}s that should be bound
+     * @param generator
+     *            creates a new MBean instance for a given {@link ObjectName}
+     * @param interval
+     *            ms a fetched set is considered fresh, and background refresh
+     *            period
+     * @param throttle
+     *            minimum ms between two forced refreshes
+     */
+    public MBeanDiscovery(String name, JmxMBeanServer server, Lister lister, Function<ObjectName, Object> generator,
+            long interval, long throttle) {
+        this.name = name;
+        this.server = server;
+        this.lister = lister;
+        this.generator = generator;
+        this.interval = interval;
+        this.throttle = throttle;
+    }
+
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("com.scylladb.jmx:type=Discovery,name=" + name);
+    }
+
+    /**
+     * Start refreshing periodically in the background, for as long as the set
+     * is being used.
+     */
+    public void start() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, name + " discovery");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        synchronized (tickerLock) {
+            this.executor = executor;
+        }
+        resume();
+    }
+
+    private void resume() {
+        synchronized (tickerLock) {
+            if (executor != null && ticker == null) {
+                ticker = executor.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private boolean isIdle() {
+        return System.currentTimeMillis() - lastUsed > IDLE_INTERVALS * interval;
+    }
+
+    private void tick() {
+        if (isIdle()) {
+            synchronized (tickerLock) {
+                // Nobody is looking, the next lookup starts us again. Checked
+                // again, as a lookup may just have found us still running.
+                if (isIdle()) {
+                    ticker.cancel(false);
+                    ticker = null;
+                    return;
+                }
+            }
+        }
+        try {
+            checkFreshness(false);
+        } catch (MalformedObjectNameException | RuntimeException e) {
+            logger.log(FINE, name + " discovery failed", e);
+        }
+    }
+
+    /**
+     * Make sure the registered set is up to date.
+     *
+     * @param force
+     *            refresh even if the set is still fresh, e.g. because a name
+     *            was asked for that is not registered. Subject to rate
+     *            limiting.
+     * @return true if any MBean was added
+     * @throws MalformedObjectNameException
+     */
+    public boolean check(boolean force) throws MalformedObjectNameException {
+        lastUsed = System.currentTimeMillis();
+        resume();
+        return checkFreshness(force);
+    }
+
+    private boolean checkFreshness(boolean force) throws MalformedObjectNameException {
+        long now = System.currentTimeMillis();
+        long age = now - lastRefresh;
+        if (age < interval && !force) {
+            return false;
+        }
+        if (age < throttle) {
+            throttledCount.increment();
+            return false;
+        }
+        return refresh(now);
+    }
+
+    private synchronized boolean refresh(long requested) throws MalformedObjectNameException {
+        if (lastRefresh >= requested) {
+            // Someone else refreshed while we were waiting
+            return false;
+        }
+        long start = System.nanoTime();
+        Set<ObjectName> all = lister.list();
+        Set<ObjectName> result = new HashSet<>(all.size());
+        boolean changed = false;
+
+        for (ObjectName n : registered) {
+            if (!all.contains(n)) {
+                try {
+                    server.getMBeanServerInterceptor().unregisterMBean(n);
+                } catch (MBeanRegistrationException | InstanceNotFoundException e) {
+                }
+                changed = true;
+            }
+        }
+
+        List<ObjectName> toAdd = new ArrayList<>();
+        for (ObjectName n : all) {
+            if (registered.contains(n)) {
+                result.add(n);
+            } else {
+                toAdd.add(n);
+            }
+        }
+
+        // Each worker picks the next name to register until done
+        Set<ObjectName> bound = ConcurrentHashMap.newKeySet();
+        LongAdder added = new LongAdder();
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < toAdd.size(); i = next.getAndIncrement()) {
+                ObjectName n = toAdd.get(i);
+                try {
+                    server.getMBeanServerInterceptor().registerMBean(generator.apply(n), n);
+                    bound.add(n);
+                    added.increment();
+                } catch (InstanceAlreadyExistsException e) {
+                    bound.add(n);
+                } catch (MBeanRegistrationException | NotCompliantMBeanException | RuntimeException e) {
+                    logger.log(FINE, "Could not register " + n, e);
+                }
+            }
+        };
+        int helpers = toAdd.size() < PARALLEL_THRESHOLD ? 0 : REGISTRATION_THREADS - 1;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[helpers];
+        for (int i = 0; i < helpers; i++) {
+            futures[i] = CompletableFuture.runAsync(worker, registrationExecutor);
+        }
+        worker.run();
+        CompletableFuture.allOf(futures).join();
+        result.addAll(bound);
+        changed |= !toAdd.isEmpty();
+
+        registered = result;
+        if (changed) {
+            version++;
+        }
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastRefreshDuration = duration;
+        totalRefreshDuration.add(duration);
+        refreshCount.increment();
+        lastRefresh = System.currentTimeMillis();
+        return added.sum() > 0;
+    }
+
+    @Override
+    public long getLastRefreshTime() {
+        return lastRefresh;
+    }
+
+    @Override
+    public long getLastRefreshDuration() {
+        return lastRefreshDuration;
+    }
+
+    @Override
+    public long getTotalRefreshDuration() {
+        return totalRefreshDuration.sum();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    @Override
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int getSize() {
+        return registered.size();
+    }
+
+    @Override
+    public void refresh() {
+        try {
+            refresh(System.currentTimeMillis());
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
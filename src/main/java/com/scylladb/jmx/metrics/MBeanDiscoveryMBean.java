@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.metrics;
+
+/**
+ * Statistics of a {@link MBeanDiscovery}.
+ */
+public interface MBeanDiscoveryMBean {
+    /** Time (ms since epoch) of the last completed refresh, 0 if none */
+    long getLastRefreshTime();
+
+    /** Duration in ms of the last refresh, including (un)registration */
+    long getLastRefreshDuration();
+
+    /** Accumulated duration in ms of all refreshes */
+    long getTotalRefreshDuration();
+
+    /** Number of refreshes done */
+    long getRefreshCount();
+
+    /** Number of forced refreshes skipped because of rate limiting */
+    long getThrottledCount();
+
+    /** Incremented every time the discovered set changes */
+    long getVersion();
+
+    /** Number of currently registered MBeans */
+    int getSize();
+
+    /** Refresh now, ignoring cache and rate limit */
+    void refresh();
+}
@@ -11,8 +11,6 @@ import java.util.Set;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -21,6 +19,7 @@ import org.apache.cassandra.metrics.Metrics;
 import org.apache.cassandra.metrics.MetricsRegistry;
 
 import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.main.Startup;
 import com.sun.jmx.mbeanserver.JmxMBeanServer;
 
 /**
@@ -90,6 +89,7 @@ public abstract class MetricsMBean extends APIMBean {
     }
 
     private void register(MetricsRegistry registry, JmxMBeanServer server, boolean reversed) throws MalformedObjectNameException {
+        long start = System.nanoTime();
         // Check if we're the first/last of our type bound/removed. 
         synchronized (registrationLock) {
             boolean registerGlobals = shouldRegisterGlobals(server, name.getDomain() + ":" + name.getKeyProperty("type"), reversed);
@@ -100,7 +100,15 @@ public abstract class MetricsMBean extends APIMBean {
             }
         }
         for (Metrics m : metrics) {
-            m.register(registry);
+            if (reversed) {
+                m.unregister(registry);
+            } else {
+                m.register(registry);
+            }
+        }
+        if (!reversed) {
+            // Unregistration (e.g. of dropped tables) is not part of startup
+            Startup.metricsRegistration.add(start);
         }
     }
 
@@ -121,12 +129,7 @@ public abstract class MetricsMBean extends APIMBean {
                 // Unbind instead of bind. Yes.
                 @Override
                 public void register(Supplier<MetricMBean> s, ObjectName... objectNames) {
-                    for (ObjectName name : objectNames) {
-                        try {
-                            server.getMBeanServerInterceptor().unregisterMBean(name);
-                        } catch (MBeanRegistrationException | InstanceNotFoundException e) {
-                        }
-                    }
+                    unregister(objectNames);
                 }
             }, server, true);
         } catch (MalformedObjectNameException e) {
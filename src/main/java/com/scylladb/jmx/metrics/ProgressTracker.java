@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.metrics;
+
+import static java.util.logging.Level.FINE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+/**
+ * Turns a poll-only list of ongoing operations (compactions, streams, ...)
+ * into notifications.
+ * <p>
+ * While at least one listener is registered, the list is polled every
+ * "progresspollinterval" ms (default 1000) and compared, by key, with the
+ * previous poll. Operations that appeared, changed or disappeared are
+ * reported to {@link #started}, {@link #progressed} and {@link #completed},
+ * which send the actual notifications. However many listeners there are, the
+ * API server is polled once per interval, and not at all without listeners.
+ * </p>
+ * <p>
+ * The first poll after the first listener is added only takes a baseline,
+ * so operations already running at that time are not reported as started,
+ * only their later progress and completion are.
+ * </p>
+ * A failed poll is skipped, rather than taken as all operations having
+ * completed.
+ */
+public abstract class ProgressTracker<T> extends NotificationBroadcasterSupport {
+    private static final Logger logger = Logger.getLogger(ProgressTracker.class.getName());
+
+    private static final long INTERVAL = Long.getLong("progresspollinterval", 1000);
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "Progress tracker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Object source;
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Guarded by this
+    private final List<NotificationListener> listeners = new ArrayList<>();
+    private ScheduledFuture<?> task;
+    // null until the baseline poll
+    private Map<String, T> previous;
+
+    /**
+     * @param source
+     *            source of the notifications sent, i.e. the MBean name
+     */
+    protected ProgressTracker(Object source, MBeanNotificationInfo... info) {
+        super(info);
+        this.source = source;
+    }
+
+    /**
+     * @return the current operations by key, which must be stable for the
+     *         life time of an operation
+     */
+    protected abstract Map<String, T> poll();
+
+    protected abstract void started(String key, T state);
+
+    /**
+     * Called for an operation not equal to its previous state.
+     */
+    protected abstract void progressed(String key, T previous, T state);
+
+    protected abstract void completed(String key, T last);
+
+    /**
+     * Sends a notification of the given type.
+     */
+    protected void send(String type, String message, Object userData) {
+        Notification n = new Notification(type, source, sequence.incrementAndGet(), System.currentTimeMillis(),
+                message);
+        n.setUserData(userData);
+        sendNotification(n);
+    }
+
+    private void update() {
+        Map<String, T> current;
+        try {
+            current = poll();
+        } catch (RuntimeException e) {
+            logger.log(FINE, "Could not poll progress", e);
+            return;
+        }
+        Map<String, T> last;
+        synchronized (this) {
+            if (task == null) {
+                return;
+            }
+            last = previous;
+            previous = current;
+        }
+        if (last == null) {
+            // Baseline, nothing to compare with yet
+            return;
+        }
+        for (Map.Entry<String, T> e : current.entrySet()) {
+            T before = last.get(e.getKey());
+            if (before == null) {
+                started(e.getKey(), e.getValue());
+            } else if (!Objects.equals(before, e.getValue())) {
+                progressed(e.getKey(), before, e.getValue());
+            }
+        }
+        for (Map.Entry<String, T> e : last.entrySet()) {
+            if (!current.containsKey(e.getKey())) {
+                completed(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private void safeUpdate() {
+        try {
+            update();
+        } catch (Throwable t) {
+            logger.log(FINE, "Could not send progress", t);
+        }
+    }
+
+    private synchronized void listenersChanged() {
+        if (!listeners.isEmpty() && task == null) {
+            previous = null;
+            task = executor.scheduleWithFixedDelay(this::safeUpdate, 0, INTERVAL, TimeUnit.MILLISECONDS);
+        } else if (listeners.isEmpty() && task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    @Override
+    public void addNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+        super.addNotificationListener(listener, filter, handback);
+        synchronized (this) {
+            listeners.add(listener);
+            listenersChanged();
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+        super.removeNotificationListener(listener);
+        synchronized (this) {
+            listeners.removeIf(l -> l == listener);
+            listenersChanged();
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+            throws ListenerNotFoundException {
+        super.removeNotificationListener(listener, filter, handback);
+        synchronized (this) {
+            listeners.remove(listener);
+            listenersChanged();
+        }
+    }
+}
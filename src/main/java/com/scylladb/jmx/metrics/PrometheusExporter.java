@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.metrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.ObjectName;
+
+import org.apache.cassandra.metrics.MetricsRegistry;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxCounterMBean;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxGaugeMBean;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxHistogramMBean;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxMeterMBean;
+import org.apache.cassandra.metrics.MetricsRegistry.JmxTimerMBean;
+import org.apache.cassandra.metrics.MetricsRegistry.MetricMBean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves all metrics registered through {@link MetricsRegistry} over HTTP in
+ * the Prometheus text or OpenMetrics format (depending on what the scraper
+ * accepts), reading the metric objects directly instead of going through JMX.
+ * <p>
+ * Names follow the usual JMX exporter conventions, i.e.
+ * <code>org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=ReadLatency</code>
+ * becomes <code>cassandra_table_read_latency{keyspace="ks",scope="t"}</code>.
+ * Timers and histograms are exported as summaries, timers in microseconds.
+ * </p>
+ * <p>
+ * Metrics registered lazily (see "metricslazy") are only exported once they
+ * have been created by some other use, scraping does not create them.
+ * </p>
+ * The response is streamed as it is rendered, and gzip compressed if the
+ * scraper accepts it.
+ */
+public class PrometheusExporter {
+    private static final Logger logger = Logger.getLogger(PrometheusExporter.class.getName());
+
+    public static final String PATH = "/metrics";
+
+    private static final String TEXT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String OPENMETRICS_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final double[] QUANTILES = { .5, .75, .95, .98, .99, .999 };
+
+    private static enum Kind {
+        GAUGE("gauge"), COUNTER("counter"), METER("counter"), SUMMARY("summary");
+
+        private final String type;
+
+        private Kind(String type) {
+            this.type = type;
+        }
+    }
+
+    private static Kind kindOf(MetricMBean m) {
+        if (m instanceof JmxTimerMBean || m instanceof JmxHistogramMBean) {
+            return Kind.SUMMARY;
+        }
+        if (m instanceof JmxMeterMBean) {
+            return Kind.METER;
+        }
+        if (m instanceof JmxCounterMBean) {
+            return Kind.COUNTER;
+        }
+        return Kind.GAUGE;
+    }
+
+    private static class Sample {
+        private final String labels;
+        private final MetricMBean metric;
+
+        private Sample(String labels, MetricMBean metric) {
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+
+    private static class Family {
+        private final String name;
+        private final Kind kind;
+        private final List<Sample> samples = new ArrayList<>();
+
+        private Family(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    private final HttpServer server;
+
+    // Metrics grouped into families, rebuilt when the registrations change
+    private List<Family> families = Collections.emptyList();
+    private long familiesVersion = -1;
+
+    public PrometheusExporter(InetSocketAddress address, int threads) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.setExecutor(newExporterExecutor(threads));
+        server.createContext(PATH, this::handle);
+    }
+
+    private static ExecutorService newExporterExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "Prometheus exporter");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+            boolean gzip = encoding != null && encoding.contains("gzip");
+
+            exchange.getResponseHeaders().set("Content-Type", openMetrics ? OPENMETRICS_TYPE : TEXT_TYPE);
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            // Chunked, so that nothing has to be buffered
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            if (gzip) {
+                out = new GZIPOutputStream(out, 8192);
+            }
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8), 16384)) {
+                write(w, openMetrics);
+            }
+        } catch (IOException e) {
+            logger.log(FINE, "Could not send metrics", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized List<Family> getFamilies() {
+        long version = MetricsRegistry.getRegisteredVersion();
+        if (version != familiesVersion) {
+            families = group(MetricsRegistry.getMaterializedMetrics());
+            familiesVersion = version;
+        }
+        return families;
+    }
+
+    private static List<Family> group(Map<ObjectName, MetricMBean> metrics) {
+        Map<String, Family> byName = new TreeMap<>();
+        for (Map.Entry<ObjectName, MetricMBean> e : metrics.entrySet()) {
+            ObjectName n = e.getKey();
+            Kind kind = kindOf(e.getValue());
+            String name = familyName(n);
+            Family f = byName.get(name);
+            if (f != null && f.kind != kind) {
+                // Samples of one family must all be of the same type
+                name = name + "_" + kind.name().toLowerCase();
+                f = byName.get(name);
+            }
+            if (f == null) {
+                f = new Family(name, kind);
+                byName.put(name, f);
+            }
+            f.samples.add(new Sample(labels(n), e.getValue()));
+        }
+        for (Family f : byName.values()) {
+            f.samples.sort((s1, s2) -> s1.labels.compareTo(s2.labels));
+        }
+        return new ArrayList<>(byName.values());
+    }
+
+    private static String familyName(ObjectName n) {
+        String domain = n.getDomain();
+        String prefix = "org.apache.cassandra.metrics".equals(domain) ? "cassandra" : sanitize(domain);
+        StringBuilder sb = new StringBuilder(prefix);
+        String type = n.getKeyProperty("type");
+        if (type != null) {
+            sb.append('_').append(snakeCase(type));
+        }
+        String name = n.getKeyProperty("name");
+        if (name != null) {
+            sb.append('_').append(snakeCase(name));
+        }
+        return sb.toString();
+    }
+
+    private static String labels(ObjectName n) {
+        // Sorted, so that label sets are stable
+        Map<String, String> props = new TreeMap<>(n.getKeyPropertyList());
+        props.remove("type");
+        props.remove("name");
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : props.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : ",").append(sanitize(e.getKey())).append("=\"");
+            String value = e.getValue();
+            escape(sb, value.startsWith("\"") ? ObjectName.unquote(value) : value).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    private static String sanitize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (i > 0 && c >= '0' && c <= '9');
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private static String snakeCase(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        String clean = sanitize(s);
+        for (int i = 0; i < clean.length(); i++) {
+            char c = clean.charAt(i);
+            if (Character.isUpperCase(c)) {
+                // ReadLatency -> read_latency, but CASRead -> cas_read
+                boolean boundary = i > 0 && clean.charAt(i - 1) != '_'
+                        && (Character.isLowerCase(clean.charAt(i - 1)) || Character.isDigit(clean.charAt(i - 1))
+                                || (i + 1 < clean.length() && Character.isLowerCase(clean.charAt(i + 1))));
+                if (boundary) {
+                    sb.append('_');
+                }
+                sb.append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders all metrics. Metrics that cannot be read are left out.
+     */
+    public void write(Writer w, boolean openMetrics) throws IOException {
+        StringBuilder rates = new StringBuilder();
+        for (Family f : getFamilies()) {
+            String name = f.name;
+            String typeName = f.kind.type.equals("counter") && !openMetrics ? name + "_total" : name;
+            w.append("# TYPE ").append(typeName).append(' ').append(f.kind.type).append('\n');
+            rates.setLength(0);
+            for (Sample s : f.samples) {
+                try {
+                    writeSample(w, f, s, rates);
+                } catch (RuntimeException e) {
+                    logger.log(FINE, "Could not read " + name + "{" + s.labels + "}", e);
+                }
+            }
+            // Rates of meters and timers form a gauge family of their own
+            if (rates.length() > 0) {
+                w.append("# TYPE ").append(name).append("_rate gauge\n").append(rates);
+            }
+        }
+        if (openMetrics) {
+            w.append("# EOF\n");
+        }
+    }
+
+    private static void writeSample(Writer w, Family f, Sample s, StringBuilder rates) throws IOException {
+        MetricMBean m = s.metric;
+        switch (f.kind) {
+        case GAUGE: {
+            Object v = ((JmxGaugeMBean) m).getValue();
+            if (v instanceof Number) {
+                line(w, f.name, s.labels, ((Number) v).doubleValue());
+            } else if (v instanceof Boolean) {
+                line(w, f.name, s.labels, (Boolean) v ? 1 : 0);
+            }
+            break;
+        }
+        case COUNTER:
+            line(w, f.name + "_total", s.labels, ((JmxCounterMBean) m).getCount());
+            break;
+        case METER: {
+            JmxMeterMBean meter = (JmxMeterMBean) m;
+            line(w, f.name + "_total", s.labels, meter.getCount());
+            rates(rates, f.name + "_rate", s.labels, meter);
+            break;
+        }
+        case SUMMARY:
+            if (m instanceof JmxTimerMBean) {
+                JmxTimerMBean t = (JmxTimerMBean) m;
+                double[] values = { t.get50thPercentile(), t.get75thPercentile(), t.get95thPercentile(),
+                        t.get98thPercentile(), t.get99thPercentile(), t.get999thPercentile() };
+                quantiles(w, f.name, s.labels, values);
+                line(w, f.name + "_count", s.labels, t.getCount());
+                rates(rates, f.name + "_rate", s.labels, t);
+            } else {
+                JmxHistogramMBean h = (JmxHistogramMBean) m;
+                double[] values = { h.get50thPercentile(), h.get75thPercentile(), h.get95thPercentile(),
+                        h.get98thPercentile(), h.get99thPercentile(), h.get999thPercentile() };
+                quantiles(w, f.name, s.labels, values);
+                line(w, f.name + "_count", s.labels, h.getCount());
+            }
+            break;
+        }
+    }
+
+    private static void quantiles(Writer w, String name, String labels, double[] values) throws IOException {
+        for (int i = 0; i < QUANTILES.length; i++) {
+            String l = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + QUANTILES[i] + "\"";
+            line(w, name, l, values[i]);
+        }
+    }
+
+    private static void rates(StringBuilder sb, String name, String labels, JmxMeterMBean m) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        appendLine(sb, name, prefix + "window=\"1m\"", m.getOneMinuteRate());
+        appendLine(sb, name, prefix + "window=\"5m\"", m.getFiveMinuteRate());
+        appendLine(sb, name, prefix + "window=\"15m\"", m.getFifteenMinuteRate());
+        appendLine(sb, name, prefix + "window=\"mean\"", m.getMeanRate());
+    }
+
+    private static void line(Writer w, String name, String labels, double value) throws IOException {
+        w.append(name);
+        if (!labels.isEmpty()) {
+            w.append('{').append(labels).append('}');
+        }
+        w.append(' ').append(format(value)).append('\n');
+    }
+
+    private static void appendLine(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+    }
+
+    private static String format(double v) {
+        if (Double.isNaN(v)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(v)) {
+            return v > 0 ? "+Inf" : "-Inf";
+        }
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            return Long.toString((long) v);
+        }
+        return Double.toString(v);
+    }
+
+    /**
+     * Starts an exporter if the "prometheusport" system property is set. It
+     * listens on "prometheusaddress", by default on the same host as JMX
+     * ("com.sun.management.jmxremote.host"), or on the loopback address if
+     * that is not set either. The endpoint has no authentication or TLS, so
+     * listening on other interfaces must be asked for explicitly.
+     *
+     * @return the started exporter, or null if none is configured
+     */
+    public static PrometheusExporter startFromSystemProperties() {
+        int port = Integer.getInteger("prometheusport", 0);
+        if (port <= 0) {
+            return null;
+        }
+        String address = System.getProperty("prometheusaddress",
+                System.getProperty("com.sun.management.jmxremote.host"));
+        try {
+            InetSocketAddress bind = address != null ? new InetSocketAddress(address, port)
+                    : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            PrometheusExporter exporter = new PrometheusExporter(bind,
+                    Integer.getInteger("prometheusthreads", 2));
+            exporter.start();
+            return exporter;
+        } catch (IOException e) {
+            logger.log(WARNING, "Could not start Prometheus exporter on port " + port, e);
+            return null;
+        }
+    }
+}
@@ -11,7 +11,10 @@ import static javax.management.MBeanServerDelegate.DELEGATE_NAME;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -47,6 +50,7 @@ import javax.management.RuntimeOperationsException;
 
 import com.sun.jmx.interceptor.DefaultMBeanServerInterceptor;
 import com.sun.jmx.mbeanserver.JmxMBeanServer;
+import com.sun.jmx.mbeanserver.MBeanInstantiator;
 import com.sun.jmx.mbeanserver.NamedObject;
 import com.sun.jmx.mbeanserver.Repository;
 
@@ -68,7 +72,64 @@ public class APIBuilder extends MBeanServerBuilder {
 
         private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
-        private final Map<TableMetricParams, DynamicMBean> tableMBeans = new HashMap<>();
+        private final Map<TableMetricParams, NamedObject> tableMBeans = new HashMap<>();
+
+        /**
+         * Secondary indexes, key property -> value -> MBeans having that
+         * value. Used to answer pattern queries without looking at every
+         * registered table metric.
+         */
+        private static final String[] INDEXED_KEYS = { "keyspace", "scope", "name", "type" };
+        private final Map<String, Map<String, Set<NamedObject>>> indexes = new HashMap<>();
+        {
+            for (String key : INDEXED_KEYS) {
+                indexes.put(key, new HashMap<>());
+            }
+        }
+
+        private void index(final NamedObject o) {
+            for (String key : INDEXED_KEYS) {
+                String value = o.getName().getKeyProperty(key);
+                if (value != null) {
+                    indexes.get(key).computeIfAbsent(value, v -> new HashSet<>()).add(o);
+                }
+            }
+        }
+
+        private void unindex(final NamedObject o) {
+            for (String key : INDEXED_KEYS) {
+                String value = o.getName().getKeyProperty(key);
+                if (value != null) {
+                    Map<String, Set<NamedObject>> index = indexes.get(key);
+                    Set<NamedObject> set = index.get(value);
+                    if (set != null && set.remove(o) && set.isEmpty()) {
+                        index.remove(value);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the smallest indexed set of MBeans that can match the given
+         *         pattern, or all of them if no indexed key has a fixed value.
+         */
+        private Collection<NamedObject> candidates(final ObjectName pattern) {
+            Collection<NamedObject> best = null;
+            for (String key : INDEXED_KEYS) {
+                String value = pattern.getKeyProperty(key);
+                if (value == null || pattern.isPropertyValuePattern(key)) {
+                    continue;
+                }
+                Set<NamedObject> set = indexes.get(key).get(value);
+                if (set == null) {
+                    return Collections.emptySet();
+                }
+                if (best == null || set.size() < best.size()) {
+                    best = set;
+                }
+            }
+            return best != null ? best : tableMBeans.values();
+        }
 
         private static boolean isTableMetricName(ObjectName name) {
             return isTableMetricDomain(name.getDomain());
@@ -136,7 +197,9 @@ public class APIBuilder extends MBeanServerBuilder {
                     if (tableMBeans.containsKey(key)) {
                         throw new InstanceAlreadyExistsException(name.toString());
                     }
-                    tableMBeans.put(key, bean);
+                    final NamedObject o = new NamedObject(name, bean);
+                    tableMBeans.put(key, o);
+                    index(o);
                     if (ctx == null) return;
                     try {
                         ctx.registering();
@@ -159,9 +222,11 @@ public class APIBuilder extends MBeanServerBuilder {
                 final TableMetricParams key = new TableMetricParams(name);
                 lock.writeLock().lock();
                 try {
-                    if (tableMBeans.remove(key) == null) {
+                    final NamedObject o = tableMBeans.remove(key);
+                    if (o == null) {
                         throw new InstanceNotFoundException(name.toString());
                     }
+                    unindex(o);
 
                     if (ctx == null) {
                         return;
@@ -172,7 +237,7 @@ public class APIBuilder extends MBeanServerBuilder {
                         logger.log(SEVERE, "Unexpected error.", x);
                     }
                 } finally {
-                    lock.writeLock().lock();
+                    lock.writeLock().unlock();
                 }
             }
         }
@@ -184,7 +249,8 @@ public class APIBuilder extends MBeanServerBuilder {
             } else {
                 lock.readLock().lock();
                 try {
-                    return tableMBeans.get(new TableMetricParams(name));
+                    final NamedObject o = tableMBeans.get(new TableMetricParams(name));
+                    return o != null ? o.getObject() : null;
                 } finally {
                     lock.readLock().unlock();
                 }
@@ -192,34 +258,22 @@ public class APIBuilder extends MBeanServerBuilder {
         }
 
         private void addAll(final Set<NamedObject> res) {
-            for (Map.Entry<TableMetricParams, DynamicMBean> e : tableMBeans.entrySet()) {
-                try {
-                    res.add(new NamedObject(e.getKey().toName(), e.getValue()));
-                } catch (MalformedObjectNameException e1) {
-                    // This should never happen
-                    logger.log(SEVERE, "Unexpected error.", e1);
-                }
-            }
+            res.addAll(tableMBeans.values());
         }
 
         private void addAllMatching(final Set<NamedObject> res,
                 final ObjectNamePattern pattern) {
-            for (Map.Entry<TableMetricParams, DynamicMBean> e : tableMBeans.entrySet()) {
-                try {
-                    ObjectName name = e.getKey().toName();
-                    if (pattern.matchKeys(name)) {
-                        res.add(new NamedObject(name, e.getValue()));
-                    }
-                } catch (MalformedObjectNameException e1) {
-                    // This should never happen
-                    logger.log(SEVERE, "Unexpected error.", e1);
+            for (NamedObject o : candidates(pattern.pattern)) {
+                if (pattern.matchKeys(o.getName())) {
+                    res.add(o);
                 }
             }
         }
 
         @Override
         public Set<NamedObject> query(final ObjectName pattern, final QueryExp query) {
-            Set<NamedObject> res = wrapped.query(pattern, query);
+            // The wrapped repository may hand back an immutable empty set
+            Set<NamedObject> res = new HashSet<>(wrapped.query(pattern, query));
             ObjectName name;
             if (pattern == null ||
                 pattern.getCanonicalName().length() == 0 ||
@@ -233,9 +287,9 @@ public class APIBuilder extends MBeanServerBuilder {
             try {
                 // If pattern is not a pattern, retrieve this mbean !
                 if (!name.isPattern() && isTableMetricName(name)) {
-                    final DynamicMBean bean = tableMBeans.get(new TableMetricParams(name));
-                    if (bean != null) {
-                        res.add(new NamedObject(name, bean));
+                    final NamedObject o = tableMBeans.get(new TableMetricParams(name));
+                    if (o != null) {
+                        res.add(o);
                         return res;
                     }
                 }
@@ -267,7 +321,7 @@ public class APIBuilder extends MBeanServerBuilder {
                 }
 
                 if (!name.isDomainPattern()) {
-                    if (isTableMetricDomain(getDefaultDomain())) {
+                    if (isTableMetricDomain(name.getDomain())) {
                         if (allNames) {
                             addAll(res);
                         } else {
@@ -459,6 +513,36 @@ public class APIBuilder extends MBeanServerBuilder {
         }
     }
 
+    /**
+     * Interceptor that can also bind metric MBeans directly in the
+     * {@link TableRepository}, bypassing introspection and notifications, so
+     * that they need not be created until first used.
+     */
+    public static class APIInterceptor extends DefaultMBeanServerInterceptor {
+        private final TableRepository repository;
+
+        private APIInterceptor(MBeanServer outer, MBeanServerDelegate delegate, MBeanInstantiator instantiator,
+                TableRepository repository) {
+            super(outer, delegate, instantiator, repository);
+            this.repository = repository;
+        }
+
+        /**
+         * Binds a {@link LazyMBean} under the given name. No registration
+         * notification is sent.
+         */
+        public void registerLazily(LazyMBean bean, ObjectName name) throws InstanceAlreadyExistsException {
+            repository.addMBean(bean, name, null);
+        }
+
+        /**
+         * Removes a name bound with {@link #registerLazily}.
+         */
+        public void unregisterLazily(ObjectName name) throws InstanceNotFoundException {
+            repository.remove(name, null);
+        }
+    }
+
     @Override
     public MBeanServer newMBeanServer(String defaultDomain, MBeanServer outer, MBeanServerDelegate delegate) {
         // It is important to set |interceptors| to true while creating the
@@ -471,7 +555,7 @@ public class APIBuilder extends MBeanServerBuilder {
         // Note: Removed reflection gunk to eliminate jdk9+ warnings on 
         // execution. Also, if we can get by without reflection, it is 
         // better. 
-        final DefaultMBeanServerInterceptor interceptor = new DefaultMBeanServerInterceptor(outer != null ? outer : nested,
+        final DefaultMBeanServerInterceptor interceptor = new APIInterceptor(outer != null ? outer : nested,
                 delegate, nested.getMBeanInstantiator(),
                 new TableRepository(defaultDomain, new Repository(defaultDomain)));
         nested.setMBeanServerInterceptor(interceptor);
@@ -1,5 +1,7 @@
 package com.scylladb.jmx.utils;
 
+import static java.util.logging.Level.SEVERE;
+
 import java.io.ObjectInputStream;
 import java.net.UnknownHostException;
 import java.util.Set;
@@ -34,19 +36,29 @@ import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.metrics.StreamingMetrics;
 
 import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.main.Startup;
+import com.scylladb.jmx.metrics.MBeanDiscovery;
 import com.sun.jmx.mbeanserver.JmxMBeanServer;
 
 @SuppressWarnings("restriction")
 public class APIMBeanServer implements MBeanServer {
-    @SuppressWarnings("unused")
     private static final Logger logger = Logger.getLogger(APIMBeanServer.class.getName());
 
     private final APIClient client;
     private final JmxMBeanServer server;
+    private final MBeanDiscovery tableDiscovery;
 
     public APIMBeanServer(APIClient client, JmxMBeanServer server) {
         this.client = client;
         this.server = server;
+        this.tableDiscovery = ColumnFamilyStore.createDiscovery(client, server);
+        try {
+            server.registerMBean(tableDiscovery, tableDiscovery.getObjectName());
+        } catch (InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException
+                | MalformedObjectNameException e) {
+            logger.log(SEVERE, "Could not register table discovery", e);
+        }
+        tableDiscovery.start();
     }
 
     private static ObjectInstance prepareForRemote(final ObjectInstance i) {
@@ -285,7 +297,16 @@ public class APIMBeanServer implements MBeanServer {
         return server.getClassLoaderRepository();
     }
 
-    static final Pattern tables = Pattern.compile("^\\*?((Index)?ColumnFamil(ies|y)|(Index)?(Table(s)?)?)$");
+    // Keyspace metrics are aggregated from those of the tables
+    static final Pattern tables = Pattern.compile("^\\*?((Index)?ColumnFamil(ies|y)|(Index)?(Table(s)?)?|Keyspace)$");
+
+    /**
+     * Brings all dynamically created MBeans (tables, streaming) up to date
+     * now, rather than on the next query.
+     */
+    public void checkRegistrations() {
+        checkRegistrations(null);
+    }
 
     private boolean checkRegistrations(ObjectName name) {
         if (name != null && server.isRegistered(name)) {
@@ -297,10 +318,15 @@ public class APIMBeanServer implements MBeanServer {
         try {
             String type = name != null ? name.getKeyProperty("type") : null;            
             if (type == null || tables.matcher(type).matches()) {
-                result |= ColumnFamilyStore.checkRegistration(client, server);
+                long start = System.nanoTime();
+                // An explicit name we do not know of might be a new table
+                result |= tableDiscovery.check(name != null && !name.isPattern());
+                Startup.tableChecks.add(start);
             }
             if (type == null || StreamingMetrics.TYPE_NAME.equals(type)) {
+                long start = System.nanoTime();
                 result |= StreamingMetrics.checkRegistration(client, server);
+                Startup.streamingChecks.add(start);
             }
         } catch (MalformedObjectNameException | UnknownHostException e) {
             // TODO: log
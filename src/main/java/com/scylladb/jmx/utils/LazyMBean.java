@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.scylladb.jmx.utils;
+
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ReflectionException;
+
+import com.sun.jmx.mbeanserver.Introspector;
+
+/**
+ * Placeholder bound in place of a standard MBean that is only created, and
+ * introspected, the first time it is actually used.
+ * <p>
+ * The same instance may be bound under several names (aliases), they all
+ * share the one MBean created.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class LazyMBean implements DynamicMBean {
+    private final Supplier<?> supplier;
+    private final Runnable onMaterialized;
+    private volatile DynamicMBean mbean;
+    private Object resource;
+
+    public LazyMBean(Supplier<?> supplier) {
+        this(supplier, () -> {
+        });
+    }
+
+    /**
+     * @param onMaterialized
+     *            called once the actual MBean has been created
+     */
+    public LazyMBean(Supplier<?> supplier, Runnable onMaterialized) {
+        this.supplier = supplier;
+        this.onMaterialized = onMaterialized;
+    }
+
+    private DynamicMBean mbean() {
+        DynamicMBean m = mbean;
+        if (m == null) {
+            synchronized (this) {
+                m = mbean;
+                if (m == null) {
+                    Object r = supplier.get();
+                    try {
+                        m = Introspector.makeDynamicMBean(r);
+                    } catch (NotCompliantMBeanException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    resource = r;
+                    mbean = m;
+                    onMaterialized.run();
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return the actual MBean object, creating it if needed
+     */
+    public Object getResource() {
+        mbean();
+        return resource;
+    }
+
+    /**
+     * @return true if the actual MBean has been created
+     */
+    public boolean isMaterialized() {
+        return mbean != null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute)
+            throws AttributeNotFoundException, MBeanException, ReflectionException {
+        return mbean().getAttribute(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute)
+            throws AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException {
+        mbean().setAttribute(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        return mbean().getAttributes(attributes);
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return mbean().setAttributes(attributes);
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+            throws MBeanException, ReflectionException {
+        return mbean().invoke(actionName, params, signature);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return mbean().getMBeanInfo();
+    }
+}
@@ -35,10 +35,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -64,6 +66,7 @@ import javax.ws.rs.core.MultivaluedMap;
 import org.apache.cassandra.metrics.TableMetrics;
 
 import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.metrics.MBeanDiscovery;
 import com.scylladb.jmx.metrics.MetricsMBean;
 import com.sun.jmx.mbeanserver.JmxMBeanServer;
 import com.google.common.base.Throwables;
@@ -95,8 +98,25 @@ public class ColumnFamilyStore extends MetricsMBean implements ColumnFamilyStore
     public static final String SNAPSHOT_DROP_PREFIX = "dropped";
     private JsonObject tableSamplerResult = null;
 
-    private Future<JsonObject> futureTableSamperResult = null;
-    private ExecutorService service =  null;
+    private volatile Future<JsonObject> futureTableSamperResult = null;
+
+    /**
+     * Top partitions sampling of all tables shares this executor. The number
+     * of concurrent samplings is limited by the "samplingconcurrency" system
+     * property; threads are only kept alive while there is work.
+     */
+    private static final ExecutorService service = newSamplingExecutor(Integer.getInteger("samplingconcurrency", 4));
+
+    private static ExecutorService newSamplingExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "Table sampling");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     static
     {
@@ -134,12 +154,28 @@ public class ColumnFamilyStore extends MetricsMBean implements ColumnFamilyStore
                 futureTableSamperResult.get();
                 futureTableSamperResult = null;
             }
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
             futureTableSamperResult = null;
             throw new RuntimeException("Failed getting table statistics", e);
         }
     }
 
+    /*
+     * Abandon any sampling in progress, e.g. when the table is dropped.
+     */
+    private void cancelSampling() {
+        Future<JsonObject> f = futureTableSamperResult;
+        if (f != null) {
+            f.cancel(true);
+        }
+    }
+
+    @Override
+    public void postDeregister() {
+        cancelSampling();
+        super.postDeregister();
+    }
+
 
     public static final Set<String> TYPE_NAMES = new HashSet<>(asList("ColumnFamilies", "IndexTables", "Tables"));
 
@@ -153,7 +189,6 @@ public class ColumnFamilyStore extends MetricsMBean implements ColumnFamilyStore
         this.type = type;
         this.keyspace = keyspace;
         this.name = name;
-        service =  Executors.newSingleThreadExecutor();
     }
 
     public ColumnFamilyStore(APIClient client, ObjectName name) {
@@ -182,14 +217,25 @@ public class ColumnFamilyStore extends MetricsMBean implements ColumnFamilyStore
                 "org.apache.cassandra.db:type=" + type + ",keyspace=" + keyspace + ",columnfamily=" + name);
     }
 
-    public static boolean checkRegistration(APIClient client, JmxMBeanServer server) throws MalformedObjectNameException {
+    private static Set<ObjectName> getAllNames(APIClient client) throws MalformedObjectNameException {
         JsonArray mbeans = client.getJsonArray("/column_family/");
         Set<ObjectName> all = new HashSet<ObjectName>();
         for (int i = 0; i < mbeans.size(); i++) {
             JsonObject mbean = mbeans.getJsonObject(i);
             all.add(getName(mbean.getString("type"), mbean.getString("ks"), mbean.getString("cf")));
         }
-        return checkRegistration(server, all, n -> TYPE_NAMES.contains(n.getKeyProperty("type")), n -> new ColumnFamilyStore(client, n));
+        return all;
+    }
+
+    /**
+     * Creates the {@link MBeanDiscovery} keeping one {@link ColumnFamilyStore}
+     * registered per table. The table list is considered fresh for
+     * "tablediscoveryinterval" ms, and lookups of unknown tables force a new
+     * listing at most every "tablediscoverythrottle" ms.
+     */
+    public static MBeanDiscovery createDiscovery(APIClient client, JmxMBeanServer server) {
+        return new MBeanDiscovery("Tables", server, () -> getAllNames(client), n -> new ColumnFamilyStore(client, n),
+                Long.getLong("tablediscoveryinterval", 5000), Long.getLong("tablediscoverythrottle", 1000));
     }
 
     /**
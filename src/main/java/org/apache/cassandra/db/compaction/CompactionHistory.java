@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.db.compaction;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+import com.scylladb.jmx.api.APIClient;
+
+/**
+ * Compaction history read from the API server, kept converted between calls.
+ * <p>
+ * The history is parsed row by row while it is received, without holding
+ * the whole response as a string or JSON tree. Rows converted by a previous
+ * call are recognized by their id and reused as is, so only new rows are
+ * converted. A read history is reused for {@value #REFRESH_INTERVAL} ms, so
+ * paging through it does not read it again for every page.
+ * </p>
+ */
+class CompactionHistory {
+    static final long REFRESH_INTERVAL = 1000;
+    private static final String PATH = "/compaction_manager/compaction_history";
+    private static final JsonParserFactory factory = Json.createParserFactory(null);
+
+    private final APIClient client;
+
+    // Ordered by compaction time
+    private List<CompositeData> rows = emptyList();
+    private long[] compactedAt = new long[0];
+    private Map<String, CompositeData> byId = emptyMap();
+    private long lastRefresh;
+
+    CompactionHistory(APIClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return all of the compaction history
+     */
+    synchronized TabularData get() throws OpenDataException {
+        refresh();
+        return CompactionHistoryTabularData.from(rows);
+    }
+
+    /**
+     * @return the oldest rows compacted after since, at most limit (all if
+     *         not positive) of them. A page is only cut between rows of
+     *         different compaction times, so that the next one can be read by
+     *         passing the latest compaction time of this one.
+     */
+    synchronized TabularData get(long since, int limit) throws OpenDataException {
+        refresh();
+        int from = upperBound(since);
+        int to = limit > 0 ? (int) Math.min(rows.size(), (long) from + limit) : rows.size();
+        while (to > from && to < rows.size() && compactedAt[to] == compactedAt[to - 1]) {
+            to++;
+        }
+        return CompactionHistoryTabularData.from(rows.subList(from, to));
+    }
+
+    /**
+     * @return index of the first row compacted after the given time
+     */
+    private int upperBound(long time) {
+        int lo = 0;
+        int hi = compactedAt.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compactedAt[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void refresh() throws OpenDataException {
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh < REFRESH_INTERVAL) {
+            return;
+        }
+        Map<String, CompositeData> previous = byId;
+        List<CompositeData> res;
+        try {
+            res = client.getStreamed(PATH, null, r -> parse(r, previous));
+        } catch (JsonException e) {
+            throw new IllegalStateException("Could not parse compaction history: " + e.getMessage());
+        } catch (UncheckedOpenDataException e) {
+            throw e.getCause();
+        }
+        res.sort(Comparator.comparingLong(CompactionHistory::compactedAt));
+
+        Map<String, CompositeData> ids = new HashMap<>(res.size() * 4 / 3 + 1);
+        long[] times = new long[res.size()];
+        for (int i = 0; i < res.size(); i++) {
+            CompositeData row = res.get(i);
+            ids.put((String) row.get("id"), row);
+            times[i] = compactedAt(row);
+        }
+        rows = res;
+        compactedAt = times;
+        byId = ids;
+        lastRefresh = now;
+    }
+
+    private static long compactedAt(CompositeData row) {
+        return (Long) row.get("compacted_at");
+    }
+
+    @SuppressWarnings("serial")
+    private static class UncheckedOpenDataException extends RuntimeException {
+        UncheckedOpenDataException(OpenDataException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized OpenDataException getCause() {
+            return (OpenDataException) super.getCause();
+        }
+    }
+
+    private static List<CompositeData> parse(Reader reader, Map<String, CompositeData> previous) {
+        List<CompositeData> res = new ArrayList<>(previous.size() + 16);
+        try (JsonParser parser = factory.createParser(reader)) {
+            if (!parser.hasNext() || parser.next() != Event.START_ARRAY) {
+                throw new JsonException("Expected a JSON array");
+            }
+            for (Event e = parser.next(); e != Event.END_ARRAY; e = parser.next()) {
+                if (e != Event.START_OBJECT) {
+                    throw new JsonException("Unexpected " + e);
+                }
+                res.add(readRow(parser, previous));
+            }
+        }
+        return res;
+    }
+
+    private static CompositeData readRow(JsonParser parser, Map<String, CompositeData> previous) {
+        String id = null;
+        String ks = null;
+        String cf = null;
+        long compactedAt = 0;
+        long bytesIn = 0;
+        long bytesOut = 0;
+        String merged = "";
+        for (Event e = parser.next(); e != Event.END_OBJECT; e = parser.next()) {
+            String key = parser.getString();
+            e = parser.next();
+            switch (key) {
+            case "id":
+                id = parser.getString();
+                break;
+            case "ks":
+                ks = parser.getString();
+                break;
+            case "cf":
+                cf = parser.getString();
+                break;
+            case "compacted_at":
+                compactedAt = parser.getLong();
+                break;
+            case "bytes_in":
+                bytesIn = parser.getLong();
+                break;
+            case "bytes_out":
+                bytesOut = parser.getLong();
+                break;
+            case "rows_merged":
+                merged = readMerged(parser, e);
+                break;
+            default:
+                skip(parser, e);
+                break;
+            }
+        }
+        CompositeData row = id != null ? previous.get(id) : null;
+        if (row != null) {
+            return row;
+        }
+        try {
+            return CompactionHistoryTabularData.row(id, ks, cf, compactedAt, bytesIn, bytesOut, merged);
+        } catch (OpenDataException ex) {
+            throw new UncheckedOpenDataException(ex);
+        }
+    }
+
+    /**
+     * @return the rows merged per number of sstables, as "{key:value,...}"
+     */
+    private static String readMerged(JsonParser parser, Event e) {
+        if (e != Event.START_ARRAY) {
+            skip(parser, e);
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        while ((e = parser.next()) != Event.END_ARRAY) {
+            String k = null;
+            String v = null;
+            while ((e = parser.next()) != Event.END_OBJECT) {
+                String name = parser.getString();
+                e = parser.next();
+                if (name.equals("key")) {
+                    k = parser.getString();
+                } else if (name.equals("value")) {
+                    v = parser.getString();
+                } else {
+                    skip(parser, e);
+                }
+            }
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(k).append(':').append(v);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void skip(JsonParser parser, Event e) {
+        int depth = 0;
+        for (;;) {
+            if (e == Event.START_OBJECT || e == Event.START_ARRAY) {
+                ++depth;
+            } else if (e == Event.END_OBJECT || e == Event.END_ARRAY) {
+                --depth;
+            }
+            if (depth == 0) {
+                return;
+            }
+            e = parser.next();
+        }
+    }
+}
@@ -22,8 +22,11 @@
  */
 package org.apache.cassandra.db.compaction;
 
+import java.util.Collection;
+
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
 import javax.management.openmbean.OpenDataException;
@@ -90,8 +93,21 @@ public class CompactionHistoryTabularData {
                 }
                 sb.append('}');
             }
-            result.put(new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES,
-                    new Object[] { id, ksName, cfName, compactedAt, bytesIn, bytesOut, sb.toString() }));
+            result.put(row(id, ksName, cfName, compactedAt, bytesIn, bytesOut, sb.toString()));
+        }
+        return result;
+    }
+
+    public static CompositeData row(String id, String ksName, String cfName, long compactedAt, long bytesIn,
+            long bytesOut, String rowsMerged) throws OpenDataException {
+        return new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES,
+                new Object[] { id, ksName, cfName, compactedAt, bytesIn, bytesOut, rowsMerged });
+    }
+
+    public static TabularData from(Collection<CompositeData> rows) {
+        TabularDataSupport result = new TabularDataSupport(TABULAR_TYPE, Math.max(16, rows.size() * 4 / 3 + 1), 0.75f);
+        for (CompositeData row : rows) {
+            result.put(row);
         }
         return result;
     }
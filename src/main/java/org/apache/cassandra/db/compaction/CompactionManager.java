@@ -25,6 +25,14 @@ import java.util.logging.Logger;
 
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
 import javax.ws.rs.core.MultivaluedHashMap;
@@ -34,6 +42,7 @@ import org.apache.cassandra.metrics.CompactionMetrics;
 
 import com.scylladb.jmx.api.APIClient;
 import com.scylladb.jmx.metrics.MetricsMBean;
+import com.scylladb.jmx.metrics.ProgressTracker;
 
 /**
  * A singleton which manages a private executor of ongoing compactions.
@@ -48,16 +57,102 @@ import com.scylladb.jmx.metrics.MetricsMBean;
  *
  * Modified by Cloudius Systems
  */
-public class CompactionManager extends MetricsMBean implements CompactionManagerMBean {
+public class CompactionManager extends MetricsMBean implements CompactionManagerMBean, NotificationEmitter {
     public static final String MBEAN_OBJECT_NAME = "org.apache.cassandra.db:type=CompactionManager";
+
+    public static final String COMPACTION_STARTED = "compaction.started";
+    public static final String COMPACTION_PROGRESS = "compaction.progress";
+    public static final String COMPACTION_COMPLETED = "compaction.completed";
     private static final Logger logger = Logger.getLogger(CompactionManager.class.getName());
+    private static final String NO_ID = "<none>";
 
     public void log(String str) {
         logger.finest(str);
     }
 
+    /**
+     * Notifies of compactions starting, progressing and completing, with the
+     * compaction (as in {@link #getCompactions()}) as user data. Compactions
+     * are told apart by their id, if the API server sends one. Otherwise by
+     * table, type and total size, which is fixed for the life time of a
+     * compaction, and only by order if all of those are the same.
+     */
+    private class CompactionTracker extends ProgressTracker<Map<String, String>> {
+        CompactionTracker() {
+            super(MBEAN_OBJECT_NAME,
+                    new MBeanNotificationInfo(
+                            new String[] { COMPACTION_STARTED, COMPACTION_PROGRESS, COMPACTION_COMPLETED },
+                            Notification.class.getName(), "Compaction progress"));
+        }
+
+        @Override
+        protected Map<String, Map<String, String>> poll() {
+            Map<String, Map<String, String>> res = new HashMap<>();
+            for (Map<String, String> c : getCompactions()) {
+                String id = c.get("compactionId");
+                if (!NO_ID.equals(id)) {
+                    res.put(id, c);
+                    continue;
+                }
+                String key = c.get("keyspace") + "." + c.get("columnfamily") + ":" + c.get("taskType") + ":"
+                        + c.get("total");
+                int n = 0;
+                while (res.containsKey(key + "#" + n)) {
+                    n++;
+                }
+                res.put(key + "#" + n, c);
+            }
+            return res;
+        }
+
+        private String message(Map<String, String> c) {
+            return c.get("taskType") + " of " + c.get("keyspace") + "." + c.get("columnfamily") + ": "
+                    + c.get("completed") + "/" + c.get("total") + " " + c.get("unit");
+        }
+
+        @Override
+        protected void started(String key, Map<String, String> state) {
+            send(COMPACTION_STARTED, message(state), state);
+        }
+
+        @Override
+        protected void progressed(String key, Map<String, String> previous, Map<String, String> state) {
+            send(COMPACTION_PROGRESS, message(state), state);
+        }
+
+        @Override
+        protected void completed(String key, Map<String, String> last) {
+            send(COMPACTION_COMPLETED, message(last), last);
+        }
+    }
+
+    private final CompactionHistory history;
+    private final CompactionTracker notifier = new CompactionTracker();
+
     public CompactionManager(APIClient client) {
         super(MBEAN_OBJECT_NAME, client, new CompactionMetrics());
+        this.history = new CompactionHistory(client);
+    }
+
+    @Override
+    public void addNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+        notifier.addNotificationListener(listener, filter, handback);
+    }
+
+    @Override
+    public void removeNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+        notifier.removeNotificationListener(listener);
+    }
+
+    @Override
+    public void removeNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback)
+            throws ListenerNotFoundException {
+        notifier.removeNotificationListener(listener, filter, handback);
+    }
+
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        return notifier.getNotificationInfo();
     }
 
     /** List of running compaction objects. */
@@ -75,7 +170,9 @@ public class CompactionManager extends MetricsMBean implements CompactionManager
             result.put("keyspace", compaction.getString("ks"));
             result.put("columnfamily", compaction.getString("cf"));
             result.put("unit", compaction.getString("unit"));
-            result.put("compactionId", "<none>");
+            // Only sent by newer API servers
+            JsonValue id = compaction.get("id");
+            result.put("compactionId", id instanceof JsonString ? ((JsonString) id).getString() : NO_ID);
             results.add(result);
         }
         return results;
@@ -93,7 +190,17 @@ public class CompactionManager extends MetricsMBean implements CompactionManager
     public TabularData getCompactionHistory() {
         log(" getCompactionHistory()");
         try {
-            return CompactionHistoryTabularData.from(client.getJsonArray("/compaction_manager/compaction_history"));
+            return history.get();
+        } catch (OpenDataException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public TabularData getCompactionHistory(long since, int limit) {
+        log(" getCompactionHistory(long since, int limit)");
+        try {
+            return history.get(since, limit);
         } catch (OpenDataException e) {
             return null;
         }
@@ -32,6 +32,14 @@ public interface CompactionManagerMBean {
     /** compaction history **/
     public TabularData getCompactionHistory();
 
+    /**
+     * Compaction history, one page at a time: the oldest rows compacted after
+     * since (ms since epoch), at most limit of them (all if not positive).
+     * Rows compacted at the same time are never split between pages, so the
+     * next page is read by passing the latest compacted_at of this one.
+     */
+    public TabularData getCompactionHistory(long since, int limit);
+
     /**
      * Triggers the compaction of user specified sstables. You can specify files
      * from various keyspaces and columnfamilies. If you do so, user defined
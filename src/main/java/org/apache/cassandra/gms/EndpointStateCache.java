@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.gms;
+
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+import com.scylladb.jmx.api.APIClient;
+
+/**
+ * Endpoint states read from the API server, kept parsed and formatted
+ * between calls.
+ * <p>
+ * The endpoints are parsed one by one while they are received. An endpoint
+ * whose generation and heartbeat version are those of the previous read has
+ * not changed: its application states are skipped rather than parsed, and
+ * its state and formatted output are reused. An endpoint with a new version
+ * whose application states are still the same (i.e. only its heartbeat
+ * moved) keeps its formatted application states. Only liveness and update
+ * time are set on every read.
+ * </p>
+ */
+class EndpointStateCache {
+    private static final String PATH = "/failure_detector/endpoints";
+    private static final JsonParserFactory factory = Json.createParserFactory(null);
+
+    private static class Entry {
+        final EndpointState state;
+        // Formatted application states, and the whole endpoint, when needed
+        final String applicationStates;
+        String formatted;
+
+        Entry(EndpointState state, String applicationStates) {
+            this.state = state;
+            this.applicationStates = applicationStates;
+        }
+
+        int generation() {
+            return state.getHeartBeatState().getGeneration();
+        }
+
+        int version() {
+            return state.getHeartBeatState().getHeartBeatVersion();
+        }
+    }
+
+    private final APIClient client;
+
+    private Map<String, Entry> entries = Collections.emptyMap();
+    private String formatted;
+
+    EndpointStateCache(APIClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return the current state of all endpoints. The states are shared with
+     *         later calls, which update them.
+     */
+    synchronized Map<String, EndpointState> getEndpointStates() {
+        refresh();
+        Map<String, EndpointState> res = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            res.put(e.getKey(), e.getValue().state);
+        }
+        return res;
+    }
+
+    /**
+     * @return the current state of all endpoints, as in
+     *         {@link FailureDetectorMBean#getAllEndpointStates()}
+     */
+    synchronized String getAllEndpointStates() {
+        if (refresh() || formatted == null) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.formatted == null) {
+                    entry.formatted = "/" + e.getKey() + "\n  generation:" + entry.generation() + "\n  heartbeat:"
+                            + entry.version() + "\n" + entry.applicationStates;
+                }
+                sb.append(entry.formatted);
+            }
+            formatted = sb.toString();
+        }
+        return formatted;
+    }
+
+    /**
+     * @return whether any endpoint was added, removed or changed
+     */
+    private boolean refresh() {
+        Map<String, Entry> previous = entries;
+        Map<String, Entry> res;
+        try {
+            res = client.getStreamed(PATH, null, r -> parse(r, previous));
+        } catch (JsonException e) {
+            throw new IllegalStateException("Could not parse endpoint states: " + e.getMessage());
+        }
+        boolean changed = res.size() != previous.size();
+        for (Map.Entry<String, Entry> e : res.entrySet()) {
+            changed |= previous.get(e.getKey()) != e.getValue();
+        }
+        entries = res;
+        if (changed) {
+            formatted = null;
+        }
+        return changed;
+    }
+
+    private static Map<String, Entry> parse(Reader reader, Map<String, Entry> previous) {
+        Map<String, Entry> res = new HashMap<>(previous.size() * 4 / 3 + 1);
+        try (JsonParser parser = factory.createParser(reader)) {
+            if (!parser.hasNext() || parser.next() != Event.START_ARRAY) {
+                throw new JsonException("Expected a JSON array");
+            }
+            for (Event e = parser.next(); e != Event.END_ARRAY; e = parser.next()) {
+                if (e != Event.START_OBJECT) {
+                    throw new JsonException("Unexpected " + e);
+                }
+                readEndpoint(parser, previous, res);
+            }
+        }
+        return res;
+    }
+
+    private static void readEndpoint(JsonParser parser, Map<String, Entry> previous, Map<String, Entry> res) {
+        String addrs = null;
+        Integer generation = null;
+        Integer version = null;
+        boolean alive = false;
+        long updateTime = 0;
+        // Null if skipped
+        EndpointState state = new EndpointState(new HeartBeatState(0));
+
+        for (Event e = parser.next(); e != Event.END_OBJECT; e = parser.next()) {
+            String key = parser.getString();
+            e = parser.next();
+            switch (key) {
+            case "addrs":
+                addrs = parser.getString();
+                break;
+            case "generation":
+                generation = parser.getInt();
+                break;
+            case "version":
+                version = parser.getInt();
+                break;
+            case "is_alive":
+                alive = e == Event.VALUE_TRUE;
+                break;
+            case "update_time":
+                updateTime = parser.getLong();
+                break;
+            case "application_state":
+                if (generation != null && version != null && unchanged(previous.get(addrs), generation, version)) {
+                    skip(parser, e);
+                    state = null;
+                } else {
+                    readApplicationStates(parser, e, state);
+                }
+                break;
+            default:
+                skip(parser, e);
+                break;
+            }
+        }
+        if (addrs == null || generation == null || version == null) {
+            throw new JsonException("Incomplete endpoint state");
+        }
+
+        Entry last = previous.get(addrs);
+        Entry entry;
+        if (unchanged(last, generation, version)
+                && (state == null || last.state.applicationState.equals(state.applicationState))) {
+            entry = last;
+        } else {
+            state.setHeartBeatState(new HeartBeatState(generation, version));
+            if (last != null && last.state.applicationState.equals(state.applicationState)) {
+                entry = new Entry(state, last.applicationStates);
+            } else {
+                entry = new Entry(state, format(state));
+            }
+        }
+        entry.state.setAliave(alive);
+        entry.state.setUpdateTimestamp(updateTime);
+        res.put(addrs, entry);
+    }
+
+    private static boolean unchanged(Entry last, int generation, int version) {
+        return last != null && last.generation() == generation && last.version() == version;
+    }
+
+    private static String format(EndpointState state) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<ApplicationState, String> e : state.applicationState.entrySet()) {
+            if (e.getKey() == ApplicationState.TOKENS) {
+                continue;
+            }
+            sb.append("  ").append(e.getKey()).append(":").append(e.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static void readApplicationStates(JsonParser parser, Event e, EndpointState state) {
+        if (e != Event.START_ARRAY) {
+            skip(parser, e);
+            return;
+        }
+        while ((e = parser.next()) != Event.END_ARRAY) {
+            Integer id = null;
+            String value = null;
+            while ((e = parser.next()) != Event.END_OBJECT) {
+                String name = parser.getString();
+                e = parser.next();
+                if (name.equals("application_state")) {
+                    id = parser.getInt();
+                } else if (name.equals("value")) {
+                    value = parser.getString();
+                } else {
+                    skip(parser, e);
+                }
+            }
+            if (id != null) {
+                state.addApplicationState(id, value);
+            }
+        }
+    }
+
+    private static void skip(JsonParser parser, Event e) {
+        int depth = 0;
+        for (;;) {
+            if (e == Event.START_OBJECT || e == Event.START_ARRAY) {
+                ++depth;
+            } else if (e == Event.END_OBJECT || e == Event.END_ARRAY) {
+                --depth;
+            }
+            if (depth == 0) {
+                return;
+            }
+            e = parser.next();
+        }
+    }
+}
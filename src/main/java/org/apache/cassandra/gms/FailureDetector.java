@@ -25,7 +25,6 @@
 package org.apache.cassandra.gms;
 
 import java.net.UnknownHostException;
-import java.util.HashMap;
 import java.util.Map;
 
 import javax.json.JsonArray;
@@ -49,8 +48,11 @@ public class FailureDetector extends APIMBean implements FailureDetectorMBean {
     private static final java.util.logging.Logger logger = java.util.logging.Logger
             .getLogger(FailureDetector.class.getName());
 
+    private final EndpointStateCache endpointStates;
+
     public FailureDetector(APIClient c) {
         super(c);
+        this.endpointStates = new EndpointStateCache(c);
     }
 
     public void log(String str) {
@@ -76,44 +78,11 @@ public class FailureDetector extends APIMBean implements FailureDetectorMBean {
     @Override
     public String getAllEndpointStates() {
         log(" getAllEndpointStates()");
-
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, EndpointState> entry : getEndpointStateMap().entrySet()) {
-            sb.append('/').append(entry.getKey()).append("\n");
-            appendEndpointState(sb, entry.getValue());
-        }
-        return sb.toString();
-    }
-
-    private void appendEndpointState(StringBuilder sb, EndpointState endpointState) {
-        sb.append("  generation:").append(endpointState.getHeartBeatState().getGeneration()).append("\n");
-        sb.append("  heartbeat:").append(endpointState.getHeartBeatState().getHeartBeatVersion()).append("\n");
-        for (Map.Entry<ApplicationState, String> state : endpointState.applicationState.entrySet()) {
-            if (state.getKey() == ApplicationState.TOKENS) {
-                continue;
-            }
-            sb.append("  ").append(state.getKey()).append(":").append(state.getValue()).append("\n");
-        }
+        return endpointStates.getAllEndpointStates();
     }
 
     public Map<String, EndpointState> getEndpointStateMap() {
-        Map<String, EndpointState> res = new HashMap<String, EndpointState>();
-        JsonArray arr = client.getJsonArray("/failure_detector/endpoints");
-        for (int i = 0; i < arr.size(); i++) {
-            JsonObject obj = arr.getJsonObject(i);
-            EndpointState ep = new EndpointState(new HeartBeatState(obj.getInt("generation"), obj.getInt("version")));
-            ep.setAliave(obj.getBoolean("is_alive"));
-            ep.setUpdateTimestamp(obj.getJsonNumber("update_time").longValue());
-            JsonArray states = obj.getJsonArray("application_state");
-            if (states != null) {
-                for (int j = 0; j < states.size(); j++) {
-                    JsonObject state = states.getJsonObject(j);
-                    ep.addApplicationState(state.getInt("application_state"), state.getString("value"));
-                }
-            }
-            res.put(obj.getString("addrs"), ep);
-        }
-        return res;
+        return endpointStates.getEndpointStates();
     }
 
     @Override
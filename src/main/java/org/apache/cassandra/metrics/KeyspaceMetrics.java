@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.metrics;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.metrics.MetricsRegistry.MetricMBean;
+
+/**
+ * Metrics of a keyspace (<code>type=Keyspace,keyspace=...</code>), aggregated
+ * in process from the metrics of its tables: counters and size gauges are
+ * summed, latencies and histograms merged. Reading them costs no more API
+ * calls than reading the table metrics, which are cached as usual.
+ * <p>
+ * They are registered along with the metrics of the first table of a
+ * keyspace, and removed with those of the last one.
+ * </p>
+ */
+public class KeyspaceMetrics implements Metrics {
+    private static final List<String> GAUGES = asList("MemtableColumnsCount", "MemtableOnHeapSize",
+            "MemtableOffHeapSize", "MemtableLiveDataSize", "AllMemtablesHeapSize", "AllMemtablesOffHeapSize",
+            "AllMemtablesLiveDataSize", "PendingCompactions", "LiveSSTableCount", "EstimatedPartitionCount",
+            "BloomFilterFalsePositives", "RecentBloomFilterFalsePositives", "BloomFilterDiskSpaceUsed",
+            "BloomFilterOffHeapMemoryUsed", "IndexSummaryOffHeapMemoryUsed", "CompressionMetadataOffHeapMemoryUsed",
+            "SpeculativeRetries", "SnapshotsSize");
+    private static final List<String> COUNTERS = asList("MemtableSwitchCount", "PendingFlushes", "LiveDiskSpaceUsed",
+            "TotalDiskSpaceUsed", "RowCacheHitOutOfRange", "RowCacheHit", "RowCacheMiss", "ReadTotalLatency",
+            "WriteTotalLatency", "RangeTotalLatency", "CasPrepareTotalLatency", "CasProposeTotalLatency",
+            "CasCommitTotalLatency");
+    private static final List<String> TIMERS = asList("ReadLatency", "WriteLatency", "RangeLatency",
+            "CasPrepareLatency", "CasProposeLatency", "CasCommitLatency", "CoordinatorReadLatency",
+            "CoordinatorScanLatency");
+    private static final List<String> HISTOGRAMS = asList("SSTablesPerReadHistogram", "TombstoneScannedHistogram",
+            "LiveScannedHistogram", "ColUpdateTimeDeltaHistogram");
+
+    // Name factories of the tables with registered metrics, per keyspace.
+    // Guarded by itself.
+    private static final Map<String, Map<String, MetricNameFactory>> keyspaces = new HashMap<>();
+
+    /**
+     * @return true if this is the first table of the keyspace
+     */
+    static boolean addTable(String keyspace, String table, MetricNameFactory factory) {
+        synchronized (keyspaces) {
+            Map<String, MetricNameFactory> tables = keyspaces.computeIfAbsent(keyspace, k -> new HashMap<>());
+            tables.put(table, factory);
+            return tables.size() == 1;
+        }
+    }
+
+    /**
+     * @return true if this was the last table of the keyspace
+     */
+    static boolean removeTable(String keyspace, String table) {
+        synchronized (keyspaces) {
+            Map<String, MetricNameFactory> tables = keyspaces.get(keyspace);
+            if (tables == null || tables.remove(table) == null) {
+                return false;
+            }
+            if (tables.isEmpty()) {
+                keyspaces.remove(keyspace);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static List<MetricNameFactory> tables(String keyspace) {
+        synchronized (keyspaces) {
+            Map<String, MetricNameFactory> tables = keyspaces.get(keyspace);
+            return tables != null ? new ArrayList<>(tables.values()) : new ArrayList<>();
+        }
+    }
+
+    private final String keyspace;
+
+    public KeyspaceMetrics(String keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    private ObjectName createMetricName(String name) throws MalformedObjectNameException {
+        return new ObjectName(DefaultNameFactory.GROUP_NAME + ":type=Keyspace,keyspace=" + keyspace + ",name=" + name);
+    }
+
+    /**
+     * @return the current metrics with the given name of all tables of the
+     *         keyspace
+     */
+    private Supplier<Collection<MetricMBean>> parts(String name) {
+        return () -> {
+            Map<ObjectName, MetricMBean> registered = MetricsRegistry.getRegisteredMetrics();
+            List<MetricMBean> res = new ArrayList<>();
+            for (MetricNameFactory f : tables(keyspace)) {
+                try {
+                    MetricMBean m = registered.get(f.createMetricName(name));
+                    if (m != null) {
+                        res.add(m);
+                    }
+                } catch (MalformedObjectNameException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return res;
+        };
+    }
+
+    @Override
+    public void register(MetricsRegistry registry) throws MalformedObjectNameException {
+        for (String name : GAUGES) {
+            registry.register(() -> registry.sumGauge(parts(name)), createMetricName(name));
+        }
+        for (String name : COUNTERS) {
+            registry.register(() -> registry.sumCounter(parts(name)), createMetricName(name));
+        }
+        for (String name : TIMERS) {
+            registry.register(() -> registry.mergedTimer(parts(name)), createMetricName(name));
+        }
+        for (String name : HISTOGRAMS) {
+            registry.register(() -> registry.mergedHistogram(parts(name)), createMetricName(name));
+        }
+    }
+}
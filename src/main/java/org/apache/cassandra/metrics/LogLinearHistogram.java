@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.metrics;
+
+/**
+ * Immutable histogram over log-linear buckets: every power of two is split
+ * into 64 equally wide buckets, values below 128 get a bucket each. The
+ * relative error of any quantile is thus below 1%.
+ * <p>
+ * Only the range of buckets between the smallest and largest value is
+ * allocated, holding cumulative counts, so that any quantile is found by a
+ * binary search. Since the bucket boundaries are fixed, histograms can be
+ * merged by adding up counts, e.g. to aggregate tables into keyspaces.
+ * </p>
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    public static final LogLinearHistogram EMPTY = new LogLinearHistogram(0, new long[0], 0, 0);
+
+    // Index of the first bucket
+    private final int offset;
+    // cumulative[i] is the number of values in buckets [offset, offset + i]
+    private final long[] cumulative;
+    private final long min;
+    private final long max;
+
+    private LogLinearHistogram(int offset, long[] cumulative, long min, long max) {
+        this.offset = offset;
+        this.cumulative = cumulative;
+        this.min = min;
+        this.max = max;
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    private static long lowerBound(int index) {
+        int shift = (index >>> SUB_BITS) - 1;
+        if (shift <= 0) {
+            return index;
+        }
+        return ((long) ((index & (SUB_COUNT - 1)) + SUB_COUNT)) << shift;
+    }
+
+    private static long width(int index) {
+        int shift = (index >>> SUB_BITS) - 1;
+        return shift <= 0 ? 1 : 1L << shift;
+    }
+
+    /**
+     * Builds a histogram of the given values, in linear time.
+     */
+    public static LogLinearHistogram of(long[] values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long v : values) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        int offset = index(min);
+        long[] counts = new long[index(max) - offset + 1];
+        for (long v : values) {
+            counts[index(v) - offset]++;
+        }
+        return new LogLinearHistogram(offset, accumulate(counts), Math.max(min, 0), Math.max(max, 0));
+    }
+
+    /**
+     * @return a histogram holding the values of all given histograms
+     */
+    public static LogLinearHistogram merge(Iterable<LogLinearHistogram> histograms) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (LogLinearHistogram h : histograms) {
+            if (h.isEmpty()) {
+                continue;
+            }
+            first = Math.min(first, h.offset);
+            last = Math.max(last, h.offset + h.cumulative.length - 1);
+            min = Math.min(min, h.min);
+            max = Math.max(max, h.max);
+        }
+        if (first > last) {
+            return EMPTY;
+        }
+        long[] counts = new long[last - first + 1];
+        for (LogLinearHistogram h : histograms) {
+            long previous = 0;
+            for (int i = 0; i < h.cumulative.length; i++) {
+                counts[h.offset - first + i] += h.cumulative[i] - previous;
+                previous = h.cumulative[i];
+            }
+        }
+        return new LogLinearHistogram(first, accumulate(counts), min, max);
+    }
+
+    private static long[] accumulate(long[] counts) {
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        return counts;
+    }
+
+    public boolean isEmpty() {
+        return cumulative.length == 0;
+    }
+
+    public long count() {
+        return isEmpty() ? 0 : cumulative[cumulative.length - 1];
+    }
+
+    public long min() {
+        return min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param quantile
+     *            in [0..1]
+     * @return the estimated value at the given quantile (nearest rank), 0 if
+     *         there are no values
+     */
+    public double getValue(double quantile) {
+        if (quantile < 0.0 || quantile > 1.0) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1]");
+        }
+        long count = count();
+        if (count == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        if (rank == 1) {
+            return min;
+        }
+        if (rank >= count) {
+            return max;
+        }
+
+        // First bucket reaching the rank
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < rank) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int index = offset + lo;
+        double value = lowerBound(index) + (width(index) - 1) / 2.0;
+        return Math.min(Math.max(value, min), max);
+    }
+}
@@ -24,6 +24,18 @@ public interface Metrics {
      */
     void register(MetricsRegistry registry) throws MalformedObjectNameException;
 
+    /**
+     * Called instead of {@link #register(MetricsRegistry)} in the unbind
+     * phase, for implementors needing to tell the two apart. The default is to
+     * just call {@link #register(MetricsRegistry)}.
+     * 
+     * @param registry
+     * @throws MalformedObjectNameException
+     */
+    default void unregister(MetricsRegistry registry) throws MalformedObjectNameException {
+        register(registry);
+    }
+
     /**
      * Same as {{@link #register(MetricsRegistry)}, but for {@link Metric}s that
      * are "global" (i.e. static - not bound to an individual bean instance.
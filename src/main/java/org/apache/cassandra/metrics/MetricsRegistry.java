@@ -19,26 +19,42 @@ package org.apache.cassandra.metrics;
 
 import static com.scylladb.jmx.api.APIClient.getReader;
 import static java.lang.Math.floor;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.SEVERE;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 
-import javax.json.JsonArray;
-import javax.json.JsonNumber;
-import javax.json.JsonObject;
 import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 
+import com.google.common.collect.Maps;
 import com.scylladb.jmx.api.APIClient;
+import com.scylladb.jmx.api.MetricData;
+import com.scylladb.jmx.utils.APIBuilder.APIInterceptor;
+import com.scylladb.jmx.utils.LazyMBean;
 import com.sun.jmx.mbeanserver.JmxMBeanServer;
 
 /**
@@ -50,9 +66,41 @@ import com.sun.jmx.mbeanserver.JmxMBeanServer;
 public class MetricsRegistry {
     private static final long CACHE_DURATION = 1000;
     private static final long UPDATE_INTERVAL = 50;
+    private static final long MAX_STALENESS = Long.getLong("metricsmaxstaleness", 0);
+
+    /**
+     * Shared pool doing background metric refreshes, the number of threads is
+     * set by the "metricsrefreshthreads" system property. At most
+     * "metricsrefreshqueue" refreshes wait for a thread, any more are
+     * discarded.
+     */
+    private static final ExecutorService refresher = newRefreshExecutor(Integer.getInteger("metricsrefreshthreads", 4),
+            Integer.getInteger("metricsrefreshqueue", 1024));
+
+    private static ExecutorService newRefreshExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "Metrics refresh");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
 
+    /**
+     * If set by the "metricslazy" system property, metric MBeans are only
+     * bound by name at registration, and created the first time they are
+     * used. Idle metrics (e.g. of tables nobody looks at) then cost little
+     * more than their names, and are left out of the Prometheus export.
+     */
+    private static final boolean LAZY = Boolean.getBoolean("metricslazy");
+
+    private static final Map<ObjectName, Supplier<MetricMBean>> registered = new ConcurrentHashMap<>();
+    private static final AtomicLong registeredVersion = new AtomicLong();
+
     private final APIClient client;
     private final JmxMBeanServer mBeanServer;
 
@@ -106,16 +154,110 @@ public class MetricsRegistry {
      * @param objectNames
      */
     public void register(Supplier<MetricMBean> f, ObjectName... objectNames) {
+        MBeanServer interceptor = mBeanServer.getMBeanServerInterceptor();
+        if (LAZY && interceptor instanceof APIInterceptor) {
+            registerLazily((APIInterceptor) interceptor, f, objectNames);
+            return;
+        }
         MetricMBean bean = f.get();
         for (ObjectName name : objectNames) {
             try {
-                mBeanServer.getMBeanServerInterceptor().registerMBean(bean, name);
+                interceptor.registerMBean(bean, name);
             } catch (InstanceAlreadyExistsException | MBeanRegistrationException | NotCompliantMBeanException e) {
                 logger.log(SEVERE, "Could not register mbean", e);
+                continue;
+            }
+            // Aliases are only registered with the MBean server
+            if (name == objectNames[0]) {
+                registered.put(name, () -> bean);
+                registeredVersion.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A lazily registered metric, created when it is first looked up.
+     */
+    private static class LazyMetric implements Supplier<MetricMBean> {
+        private final LazyMBean bean;
+
+        LazyMetric(LazyMBean bean) {
+            this.bean = bean;
+        }
+
+        @Override
+        public MetricMBean get() {
+            return (MetricMBean) bean.getResource();
+        }
+    }
+
+    private static boolean isMaterialized(Supplier<MetricMBean> s) {
+        return !(s instanceof LazyMetric) || ((LazyMetric) s).bean.isMaterialized();
+    }
+
+    private void registerLazily(APIInterceptor interceptor, Supplier<MetricMBean> f, ObjectName... objectNames) {
+        // Consumers only reading created metrics must see the new one
+        LazyMBean bean = new LazyMBean(f, registeredVersion::incrementAndGet);
+        for (ObjectName name : objectNames) {
+            try {
+                interceptor.registerLazily(bean, name);
+            } catch (InstanceAlreadyExistsException e) {
+                logger.log(SEVERE, "Could not register mbean", e);
+                continue;
+            }
+            if (name == objectNames[0]) {
+                registered.put(name, new LazyMetric(bean));
+                registeredVersion.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes metrics added with {@link #register(Supplier, ObjectName...)}.
+     */
+    public void unregister(ObjectName... objectNames) {
+        MBeanServer interceptor = mBeanServer.getMBeanServerInterceptor();
+        for (ObjectName name : objectNames) {
+            if (registered.remove(name) != null) {
+                registeredVersion.incrementAndGet();
+            }
+            try {
+                if (LAZY && interceptor instanceof APIInterceptor) {
+                    ((APIInterceptor) interceptor).unregisterLazily(name);
+                } else {
+                    interceptor.unregisterMBean(name);
+                }
+            } catch (MBeanRegistrationException | InstanceNotFoundException e) {
             }
         }
     }
 
+    /**
+     * All metrics currently registered, by primary name (i.e. without
+     * aliases), for consumers reading them directly instead of through JMX.
+     * Lazily registered metrics are created as they are looked up.
+     */
+    public static Map<ObjectName, MetricMBean> getRegisteredMetrics() {
+        return unmodifiableMap(Maps.transformValues(registered, Supplier::get));
+    }
+
+    /**
+     * The same as {@link #getRegisteredMetrics()}, but without the lazily
+     * registered metrics nobody has used yet, which are left uncreated.
+     */
+    public static Map<ObjectName, MetricMBean> getMaterializedMetrics() {
+        return unmodifiableMap(
+                Maps.transformValues(Maps.filterValues(registered, MetricsRegistry::isMaterialized), Supplier::get));
+    }
+
+    /**
+     * @return a number changed whenever a metric is registered, removed or
+     *         lazily created
+     */
+    public static long getRegisteredVersion() {
+        return registeredVersion.get();
+    }
+
     private class JmxCounter implements JmxCounterMBean {
         private final String url;
 
@@ -142,35 +284,132 @@ public class MetricsRegistry {
         };
     }
 
-    private abstract class IntermediatelyUpdated {
+    /**
+     * A value read from the API server at most once per interval.
+     * <p>
+     * Each refresh builds a new immutable value which is then published as a
+     * whole, so readers always see a consistent snapshot without locking.
+     * Only the thread winning the race for the refresh timestamp fetches, any
+     * concurrent readers keep using the previous value.
+     * </p>
+     * <p>
+     * If "metricsmaxstaleness" is set, an expired value is still served right
+     * away and the refresh is done in the background by the shared
+     * {@link #refresher}. Readers only wait for the API server when there is
+     * no value yet, or the value is older than the max staleness (e.g.
+     * because refreshing keeps failing). A metric has at most one background
+     * refresh queued or running at a time, so a slow API server does not pile
+     * up refreshes nobody will read.
+     * </p>
+     */
+    private abstract class IntermediatelyUpdated<T> implements RefreshedMBean {
         private final long interval;
-        private final Supplier<JsonObject> supplier;
-        private long lastUpdate;
+        private final Supplier<MetricData> supplier;
+        private final AtomicLong lastUpdate = new AtomicLong();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final LongAdder refreshFailures = new LongAdder();
+        private volatile T value;
+        // Time the current value was received, 0 if there is none yet
+        private volatile long valueTime;
 
-        public IntermediatelyUpdated(String url, long interval) {
-            this.supplier = () -> client.getJsonObj(url, null);
-            this.interval = interval;
+        public IntermediatelyUpdated(String url, long interval, T initial) {
+            this(() -> client.getMetricData(url), interval, initial);
         }
 
-        public IntermediatelyUpdated(Supplier<JsonObject> supplier, long interval) {
+        public IntermediatelyUpdated(Supplier<MetricData> supplier, long interval, T initial) {
             this.supplier = supplier;
             this.interval = interval;
+            this.value = initial;
         }
 
-        public abstract void update(JsonObject obj);
+        protected abstract T convert(MetricData data);
 
-        public final void update() {
-            long now = System.currentTimeMillis();
-            if (now - lastUpdate < interval) {
-                return;
+        /**
+         * Reads a new value, by default from the API server.
+         */
+        protected T load() {
+            return convert(supplier.get());
+        }
+
+        private boolean isUsable(long now) {
+            long time = valueTime;
+            return time != 0 && (MAX_STALENESS <= 0 || now - time <= MAX_STALENESS);
+        }
+
+        private void refresh() {
+            try {
+                value = load();
+                valueTime = System.currentTimeMillis();
+            } catch (RuntimeException e) {
+                refreshFailures.increment();
+                throw e;
             }
+        }
+
+        private void refreshInBackground() {
             try {
-                JsonObject obj = supplier.get();
-                update(obj);
+                refresh();
+            } catch (RuntimeException e) {
+                // Keep serving the previous value until it is too stale
+                logger.log(FINE, "Could not refresh metric", e);
             } finally {
-                lastUpdate = now;
+                refreshing.set(false);
+            }
+        }
+
+        private void scheduleRefresh() {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                refresher.execute(this::refreshInBackground);
+            } catch (RejectedExecutionException e) {
+                // Queue full, try again next interval
+                refreshing.set(false);
             }
         }
+
+        private void update() {
+            long now = System.currentTimeMillis();
+            long last = lastUpdate.get();
+            if (now - last < interval) {
+                return;
+            }
+            if (isUsable(now)) {
+                if (lastUpdate.compareAndSet(last, now)) {
+                    if (MAX_STALENESS > 0) {
+                        scheduleRefresh();
+                    } else {
+                        refresh();
+                    }
+                }
+                return;
+            }
+            // Nothing we may serve, so wait for a fresh value. Only one
+            // thread fetches, the others pick up its result.
+            synchronized (this) {
+                if (valueTime < now) {
+                    lastUpdate.set(now);
+                    refresh();
+                }
+            }
+        }
+
+        public final T get() {
+            update();
+            return value;
+        }
+
+        @Override
+        public long getStaleness() {
+            long time = valueTime;
+            return time == 0 ? -1 : System.currentTimeMillis() - time;
+        }
+
+        @Override
+        public long getRefreshFailures() {
+            return refreshFailures.sum();
+        }
     }
 
     private static class Meter {
@@ -193,13 +432,24 @@ public class MetricsRegistry {
             this(0, 0, 0, 0, 0);
         }
 
-        public Meter(JsonObject obj) {
-            JsonArray rates = obj.getJsonArray("rates");
-            oneMinuteRate = rates.getJsonNumber(0).doubleValue();
-            fiveMinuteRate = rates.getJsonNumber(1).doubleValue();
-            fifteenMinuteRate = rates.getJsonNumber(2).doubleValue();
-            meanRate = obj.getJsonNumber("mean_rate").doubleValue();
-            count = obj.getJsonNumber("count").longValue();
+        public Meter(MetricData data) {
+            this(data.getCount(), data.getRate(0), data.getRate(1), data.getRate(2), data.getMeanRate());
+        }
+
+        /**
+         * @return the meter of all events of the given meters
+         */
+        public static Meter merge(List<Meter> meters) {
+            long count = 0;
+            double one = 0, five = 0, fifteen = 0, mean = 0;
+            for (Meter m : meters) {
+                count += m.count;
+                one += m.oneMinuteRate;
+                five += m.fiveMinuteRate;
+                fifteen += m.fifteenMinuteRate;
+                mean += m.meanRate;
+            }
+            return new Meter(count, one, five, fifteen, mean);
         }
     }
 
@@ -217,50 +467,44 @@ public class MetricsRegistry {
         return s.substring(0, s.length() - 1);
     }
 
-    private class JmxMeter extends IntermediatelyUpdated implements JmxMeterMBean {
-        private Meter meter = new Meter();
-
-        public JmxMeter(String url, long interval) {
-            super(url, interval);
+    private abstract class AbstractMeter<T> extends IntermediatelyUpdated<T> implements JmxMeterMBean {
+        public AbstractMeter(String url, long interval, T initial) {
+            super(url, interval, initial);
         }
 
-        public JmxMeter(Supplier<JsonObject> supplier, long interval) {
-            super(supplier, interval);
+        public AbstractMeter(Supplier<MetricData> supplier, long interval, T initial) {
+            super(supplier, interval, initial);
         }
 
-        @Override
-        public void update(JsonObject obj) {
-            meter = new Meter(obj);
+        protected abstract Meter meter(T value);
+
+        private Meter meter() {
+            return meter(get());
         }
 
         @Override
         public long getCount() {
-            update();
-            return meter.count;
+            return meter().count;
         }
 
         @Override
         public double getMeanRate() {
-            update();
-            return meter.meanRate;
+            return meter().meanRate;
         }
 
         @Override
         public double getOneMinuteRate() {
-            update();
-            return meter.oneMinuteRate;
+            return meter().oneMinuteRate;
         }
 
         @Override
         public double getFiveMinuteRate() {
-            update();
-            return meter.fiveMinuteRate;
+            return meter().fiveMinuteRate;
         }
 
         @Override
         public double getFifteenMinuteRate() {
-            update();
-            return meter.fifteenMinuteRate;
+            return meter().fifteenMinuteRate;
         }
 
         @Override
@@ -269,12 +513,28 @@ public class MetricsRegistry {
         }
     }
 
-    public MetricMBean meter(String url) {
-        return new JmxMeter(url, CACHE_DURATION);
+    private class JmxMeter extends AbstractMeter<Meter> {
+        public JmxMeter(String url, long interval) {
+            super(url, interval, new Meter());
+        }
+
+        public JmxMeter(Supplier<MetricData> supplier, long interval) {
+            super(supplier, interval, new Meter());
+        }
+
+        @Override
+        protected Meter convert(MetricData data) {
+            return new Meter(data);
+        }
+
+        @Override
+        protected Meter meter(Meter value) {
+            return value;
+        }
     }
 
-    private static long[] asLongArray(JsonArray a) {
-        return a.getValuesAs(JsonNumber.class).stream().mapToLong(n -> n.longValue()).toArray();
+    public MetricMBean meter(String url) {
+        return new JmxMeter(url, CACHE_DURATION);
     }
 
     private static interface Samples {
@@ -287,17 +547,76 @@ public class MetricsRegistry {
         }
     }
 
+    /**
+     * A sample buffer as sent by the API server. Quantiles are interpolated
+     * over the sorted samples, which are only sorted once someone asks for
+     * them.
+     * <p>
+     * Merged buffers (e.g. of all tables of a keyspace) instead answer
+     * quantiles from the merged {@link LogLinearHistogram} of the parts, so
+     * they are not exact. A quantile is the sample of its nearest rank, within
+     * 1% (the middle of its bucket), without interpolation between samples:
+     * e.g. the median of [10, 20] is 10 rather than 15.
+     * </p>
+     */
     private static class BufferSamples implements Samples {
         private final long[] samples;
+        private volatile LogLinearHistogram histogram;
+        private volatile long[] sorted;
 
         public BufferSamples(long[] samples) {
+            this(samples, null);
+        }
+
+        private BufferSamples(long[] samples, LogLinearHistogram histogram) {
             this.samples = samples;
-            Arrays.sort(this.samples);
+            this.histogram = histogram;
+        }
+
+        /**
+         * Merges the histograms, the samples themselves are only concatenated
+         * if someone asks for the values.
+         */
+        public static BufferSamples merge(List<BufferSamples> parts) {
+            List<LogLinearHistogram> histograms = new ArrayList<>(parts.size());
+            for (BufferSamples p : parts) {
+                histograms.add(p.histogram());
+            }
+            return new BufferSamples(null, LogLinearHistogram.merge(histograms)) {
+                @Override
+                protected long[] samples() {
+                    return parts.stream().flatMapToLong(p -> Arrays.stream(p.samples())).toArray();
+                }
+
+                @Override
+                public double getValue(double quantile) {
+                    return histogram().getValue(quantile);
+                }
+            };
+        }
+
+        protected long[] samples() {
+            return samples;
+        }
+
+        protected LogLinearHistogram histogram() {
+            LogLinearHistogram res = histogram;
+            if (res == null) {
+                res = LogLinearHistogram.of(samples());
+                histogram = res;
+            }
+            return res;
         }
 
         @Override
         public long[] getValues() {
-            return samples;
+            long[] res = sorted;
+            if (res == null) {
+                res = samples().clone();
+                Arrays.sort(res);
+                sorted = res;
+            }
+            return res;
         }
 
         @Override
@@ -306,22 +625,23 @@ public class MetricsRegistry {
                 throw new IllegalArgumentException(quantile + " is not in [0..1]");
             }
 
-            if (samples.length == 0) {
+            long[] values = getValues();
+            if (values.length == 0) {
                 return 0.0;
             }
 
-            final double pos = quantile * (samples.length + 1);
+            final double pos = quantile * (values.length + 1);
 
             if (pos < 1) {
-                return samples[0];
+                return values[0];
             }
 
-            if (pos >= samples.length) {
-                return samples[samples.length - 1];
+            if (pos >= values.length) {
+                return values[values.length - 1];
             }
 
-            final double lower = samples[(int) pos - 1];
-            final double upper = samples[(int) pos];
+            final double lower = values[(int) pos - 1];
+            final double upper = values[(int) pos];
             return lower + (pos - floor(pos)) * (upper - lower);
         }
     }
@@ -349,20 +669,72 @@ public class MetricsRegistry {
             });
         }
 
-        public Histogram(JsonObject obj) {
-            this(obj.getJsonNumber("count").longValue(), obj.getJsonNumber("min").longValue(),
-                    obj.getJsonNumber("max").longValue(), obj.getJsonNumber("mean").doubleValue(),
-                    obj.getJsonNumber("variance").doubleValue(), new BufferSamples(getValues(obj)));
+        public Histogram(MetricData data) {
+            this(data.getCount(), data.getMin(), data.getMax(), data.getMean(), data.getVariance(),
+                    new BufferSamples(getValues(data)));
         }
 
         public Histogram(EstimatedHistogram h) {
             this(h.count(), h.min(), h.max(), h.mean(), 0, h);
         }
 
-        private static long[] getValues(JsonObject obj) {
-            JsonArray arr = obj.getJsonArray("sample");
-            if (arr != null) {
-                return asLongArray(arr);
+        /**
+         * @return the histogram of all values of the given histograms. The
+         *         quantiles are only merged if all of them are either based on
+         *         samples, or on estimated histograms with the same buckets.
+         */
+        public static Histogram merge(List<Histogram> histograms) {
+            long count = 0;
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            double sum = 0;
+            double squares = 0;
+            for (Histogram h : histograms) {
+                if (h.count == 0) {
+                    continue;
+                }
+                count += h.count;
+                min = Math.min(min, h.min);
+                max = Math.max(max, h.max);
+                sum += h.count * h.mean;
+                // stdDev actually holds the variance sent by the API server
+                squares += h.count * (h.stdDev + h.mean * h.mean);
+            }
+            if (count == 0) {
+                return new Histogram();
+            }
+            double mean = sum / count;
+            double variance = Math.max(0, squares / count - mean * mean);
+            return new Histogram(count, min, max, mean, variance, mergeSamples(histograms));
+        }
+
+        private static Samples mergeSamples(List<Histogram> histograms) {
+            List<BufferSamples> buffers = new ArrayList<>(histograms.size());
+            List<EstimatedHistogram> estimated = new ArrayList<>(histograms.size());
+            for (Histogram h : histograms) {
+                if (h.samples instanceof BufferSamples) {
+                    buffers.add((BufferSamples) h.samples);
+                } else if (h.samples instanceof EstimatedHistogram) {
+                    estimated.add((EstimatedHistogram) h.samples);
+                }
+            }
+            if (buffers.size() == histograms.size()) {
+                return BufferSamples.merge(buffers);
+            }
+            if (estimated.size() == histograms.size() && !estimated.isEmpty()) {
+                EstimatedHistogram merged = EstimatedHistogram.merge(estimated);
+                if (merged != null) {
+                    return merged;
+                }
+            }
+            return new Samples() {
+            };
+        }
+
+        private static long[] getValues(MetricData data) {
+            long[] sample = data.getSample();
+            if (sample != null) {
+                return sample;
             }
             return new long[0];
         }
@@ -429,16 +801,44 @@ public class MetricsRegistry {
         // buckets is one element longer than bucketOffsets -- the last element
         // is
         // values greater than the last offset
-        private long[] buckets;
+        private final long[] buckets;
 
-        public EstimatedHistogram(JsonObject obj) {
-            this(asLongArray(obj.getJsonArray("bucket_offsets")), asLongArray(obj.getJsonArray("buckets")));
+        public EstimatedHistogram(MetricData data) {
+            this(data.getBucketOffsets(), data.getBuckets());
         }
 
+        // cumulative[i] is the number of values in buckets [0, i], with the
+        // overflow bucket last
+        private final long[] cumulative;
+
         public EstimatedHistogram(long[] offsets, long[] bucketData) {
             assert bucketData.length == offsets.length + 1;
             bucketOffsets = offsets;
             buckets = bucketData;
+            cumulative = new long[bucketData.length];
+            long sum = 0;
+            for (int i = 0; i < bucketData.length; i++) {
+                sum += bucketData[i];
+                cumulative[i] = sum;
+            }
+        }
+
+        /**
+         * @return the sum of the given histograms, or null if their buckets
+         *         differ
+         */
+        public static EstimatedHistogram merge(List<EstimatedHistogram> histograms) {
+            long[] offsets = histograms.get(0).bucketOffsets;
+            long[] buckets = new long[offsets.length + 1];
+            for (EstimatedHistogram h : histograms) {
+                if (!Arrays.equals(offsets, h.bucketOffsets)) {
+                    return null;
+                }
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] += h.buckets[i];
+                }
+            }
+            return new EstimatedHistogram(offsets, buckets);
         }
 
         /**
@@ -495,14 +895,18 @@ public class MetricsRegistry {
                 return 0;
             }
 
-            long elements = 0;
-            for (int i = 0; i < lastBucket; i++) {
-                elements += buckets[i];
-                if (elements >= pcount) {
-                    return bucketOffsets[i];
+            // First bucket reaching pcount
+            int lo = 0;
+            int hi = lastBucket;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulative[mid] < pcount) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
                 }
             }
-            return 0;
+            return lo < lastBucket ? bucketOffsets[lo] : 0;
         }
 
         /**
@@ -533,7 +937,7 @@ public class MetricsRegistry {
          * @return the total number of non-zero values
          */
         public long count() {
-            return Arrays.stream(buckets).sum();
+            return cumulative[cumulative.length - 1];
         }
 
         /**
@@ -547,95 +951,80 @@ public class MetricsRegistry {
 
     }
 
-    private class JmxHistogram extends IntermediatelyUpdated implements JmxHistogramMBean {
-        private Histogram histogram = new Histogram();
-
+    private class JmxHistogram extends IntermediatelyUpdated<Histogram> implements JmxHistogramMBean {
         public JmxHistogram(String url, long interval) {
-            super(url, interval);
+            super(url, interval, new Histogram());
         }
 
         @Override
-        public void update(JsonObject obj) {
-            if (obj.containsKey("hist")) {
-                obj = obj.getJsonObject("hist");
+        protected Histogram convert(MetricData data) {
+            if (data.getHist() != null) {
+                data = data.getHist();
             }
-            if (obj.containsKey("buckets")) {
-                histogram = new Histogram(new EstimatedHistogram(obj));
-            } else {
-                histogram = new Histogram(obj);
+            if (data.hasBuckets()) {
+                return new Histogram(new EstimatedHistogram(data));
             }
+            return new Histogram(data);
         }
 
         @Override
         public long getCount() {
-            update();
-            return histogram.getCount();
+            return get().getCount();
         }
 
         @Override
         public long getMin() {
-            update();
-            return histogram.getMin();
+            return get().getMin();
         }
 
         @Override
         public long getMax() {
-            update();
-            return histogram.getMax();
+            return get().getMax();
         }
 
         @Override
         public double getMean() {
-            update();
-            return histogram.getMean();
+            return get().getMean();
         }
 
         @Override
         public double getStdDev() {
-            update();
-            return histogram.getStdDev();
+            return get().getStdDev();
         }
 
         @Override
         public double get50thPercentile() {
-            update();
-            return histogram.getValue(.5);
+            return get().getValue(.5);
         }
 
         @Override
         public double get75thPercentile() {
-            update();
-            return histogram.getValue(.75);
+            return get().getValue(.75);
         }
 
         @Override
         public double get95thPercentile() {
-            update();
-            return histogram.getValue(.95);
+            return get().getValue(.95);
         }
 
         @Override
         public double get98thPercentile() {
-            update();
-            return histogram.getValue(.98);
+            return get().getValue(.98);
         }
 
         @Override
         public double get99thPercentile() {
-            update();
-            return histogram.getValue(.99);
+            return get().getValue(.99);
         }
 
         @Override
         public double get999thPercentile() {
-            update();
-            return histogram.getValue(.999);
+            return get().getValue(.999);
         }
 
         @Override
         public long[] values() {
-            update();
-            return histogram.getValues();
+            return get().getValues();
         }
     }
 
@@ -643,89 +1032,99 @@ public class MetricsRegistry {
         return new JmxHistogram(url, UPDATE_INTERVAL);
     }
 
-    private class JmxTimer extends JmxMeter implements JmxTimerMBean {
-        private Histogram histogram = new Histogram();
+    /**
+     * Meter and histogram of a timer, always read and published together.
+     */
+    private static class Timer {
+        private final Meter meter;
+        private final Histogram histogram;
 
+        public Timer(Meter meter, Histogram histogram) {
+            this.meter = meter;
+            this.histogram = histogram;
+        }
+
+        public Timer() {
+            this(new Meter(), new Histogram());
+        }
+    }
+
+    private class JmxTimer extends AbstractMeter<Timer> implements JmxTimerMBean {
         public JmxTimer(String url, long interval) {
-            super(url, interval);
+            super(url, interval, new Timer());
+        }
+
+        @Override
+        protected Timer convert(MetricData data) {
+            return new Timer(new Meter(data.getMeter()), new Histogram(data.getHist()));
         }
 
         @Override
-        public void update(JsonObject obj) {
-            // TODO: this is not atomic.
-            super.update(obj.getJsonObject("meter"));
-            histogram = new Histogram(obj.getJsonObject("hist"));
+        protected Meter meter(Timer value) {
+            return value.meter;
+        }
+
+        private Histogram histogram() {
+            return get().histogram;
         }
 
         @Override
         public double getMin() {
-            update();
-            return toDuration(histogram.getMin());
+            return toDuration(histogram().getMin());
         }
 
         @Override
         public double getMax() {
-            update();
-            return toDuration(histogram.getMax());
+            return toDuration(histogram().getMax());
         }
 
         @Override
         public double getMean() {
-            update();
-            return toDuration(histogram.getMean());
+            return toDuration(histogram().getMean());
         }
 
         @Override
         public double getStdDev() {
-            update();
-            return toDuration(histogram.getStdDev());
+            return toDuration(histogram().getStdDev());
         }
 
         @Override
         public double get50thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.5));
+            return toDuration(histogram().getValue(.5));
         }
 
         @Override
         public double get75thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.75));
+            return toDuration(histogram().getValue(.75));
         }
 
         @Override
         public double get95thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.95));
+            return toDuration(histogram().getValue(.95));
         }
 
         @Override
         public double get98thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.98));
+            return toDuration(histogram().getValue(.98));
         }
 
         @Override
         public double get99thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.99));
+            return toDuration(histogram().getValue(.99));
         }
 
         @Override
         public double get999thPercentile() {
-            update();
-            return toDuration(histogram.getValue(.999));
+            return toDuration(histogram().getValue(.999));
         }
 
         @Override
         public long[] values() {
-            update();
-            return histogram.getValues();
+            return histogram().getValues();
         }
 
         @Override
         public String getDurationUnit() {
-            update();
             return DURATION_UNIT.toString().toLowerCase(Locale.US);
         }
     }
@@ -734,6 +1133,91 @@ public class MetricsRegistry {
         return new JmxTimer(url, UPDATE_INTERVAL);
     }
 
+    /*
+     * Aggregates, computed in process from the current values of other metrics
+     * of this registry (e.g. the tables of a keyspace), which are re-read on
+     * each access as usual. Parts of the wrong kind are ignored.
+     */
+
+    private static <T> List<T> partsOf(Class<T> type, Collection<MetricMBean> parts) {
+        List<T> res = new ArrayList<>(parts.size());
+        for (MetricMBean m : parts) {
+            if (type.isInstance(m)) {
+                res.add(type.cast(m));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return a gauge of the sum of the given (numeric) gauges, as a Long
+     */
+    public MetricMBean sumGauge(Supplier<Collection<MetricMBean>> parts) {
+        return gauge(() -> {
+            long sum = 0;
+            for (JmxGaugeMBean g : partsOf(JmxGaugeMBean.class, parts.get())) {
+                Object v = g.getValue();
+                if (v instanceof Number) {
+                    sum += ((Number) v).longValue();
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * @return a counter of the sum of the given counters
+     */
+    public MetricMBean sumCounter(Supplier<Collection<MetricMBean>> parts) {
+        return new JmxCounter(null) {
+            @Override
+            public long getCount() {
+                long sum = 0;
+                for (JmxCounterMBean c : partsOf(JmxCounterMBean.class, parts.get())) {
+                    sum += c.getCount();
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * @return a histogram merging the given histograms
+     */
+    public MetricMBean mergedHistogram(Supplier<Collection<MetricMBean>> parts) {
+        return new JmxHistogram(null, UPDATE_INTERVAL) {
+            @Override
+            protected Histogram load() {
+                List<JmxHistogram> histograms = partsOf(JmxHistogram.class, parts.get());
+                List<Histogram> values = new ArrayList<>(histograms.size());
+                for (JmxHistogram h : histograms) {
+                    values.add(h.get());
+                }
+                return Histogram.merge(values);
+            }
+        };
+    }
+
+    /**
+     * @return a timer merging the given timers
+     */
+    public MetricMBean mergedTimer(Supplier<Collection<MetricMBean>> parts) {
+        return new JmxTimer(null, UPDATE_INTERVAL) {
+            @Override
+            protected Timer load() {
+                List<JmxTimer> timers = partsOf(JmxTimer.class, parts.get());
+                List<Meter> meters = new ArrayList<>(timers.size());
+                List<Histogram> histograms = new ArrayList<>(timers.size());
+                for (JmxTimer t : timers) {
+                    Timer v = t.get();
+                    meters.add(v.meter);
+                    histograms.add(v.histogram);
+                }
+                return new Timer(Meter.merge(meters), Histogram.merge(histograms));
+            }
+        };
+    }
+
     public interface MetricMBean {
     }
 
@@ -741,7 +1225,23 @@ public class MetricsRegistry {
         Object getValue();
     }
 
-    public interface JmxHistogramMBean extends MetricMBean {
+    /**
+     * Freshness of a metric periodically read from the API server.
+     */
+    public interface RefreshedMBean extends MetricMBean {
+        /**
+         * @return age in milliseconds of the value currently served, -1 if
+         *         there is none yet
+         */
+        long getStaleness();
+
+        /**
+         * @return number of failed attempts to read the value
+         */
+        long getRefreshFailures();
+    }
+
+    public interface JmxHistogramMBean extends RefreshedMBean {
         long getCount();
 
         long getMin();
@@ -771,7 +1271,7 @@ public class MetricsRegistry {
         long getCount();
     }
 
-    public interface JmxMeterMBean extends MetricMBean {
+    public interface JmxMeterMBean extends RefreshedMBean {
         long getCount();
 
         double getMeanRate();
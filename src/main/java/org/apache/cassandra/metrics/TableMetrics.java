@@ -41,13 +41,17 @@ public class TableMetrics implements Metrics {
     private static final MetricNameFactory globalAliasFactory = new AllTableMetricNameFactory("ColumnFamily");
     private static final LatencyMetrics globalLatency[] = new LatencyMetrics[] {
             new LatencyMetrics("Read", compose("read_latency"), globalFactory, globalAliasFactory),
-            new LatencyMetrics("Write", compose("read_latency"), globalFactory, globalAliasFactory),
-            new LatencyMetrics("Range", compose("read_latency"), globalFactory, globalAliasFactory), };
+            new LatencyMetrics("Write", compose("write_latency"), globalFactory, globalAliasFactory),
+            new LatencyMetrics("Range", compose("range_latency"), globalFactory, globalAliasFactory), };
 
+    private final String keyspace;
+    private final String columnFamily;
     private final String cfName;
     private final LatencyMetrics latencyMetrics[];
 
     public TableMetrics(String keyspace, String columnFamily, boolean isIndex) {
+        this.keyspace = keyspace;
+        this.columnFamily = columnFamily;
         this.factory = new TableMetricNameFactory(keyspace, columnFamily, isIndex, "Table");
         this.aliasFactory = new TableMetricNameFactory(keyspace, columnFamily, isIndex, "ColumnFamily");
         this.cfName = keyspace + ":" + columnFamily;
@@ -67,6 +71,19 @@ public class TableMetrics implements Metrics {
         Registry r = new Registry(registry, factory, aliasFactory, cfName);
         registerCommon(r);
         registerLocal(r);
+        if (KeyspaceMetrics.addTable(keyspace, columnFamily, factory)) {
+            new KeyspaceMetrics(keyspace).register(registry);
+        }
+    }
+
+    @Override
+    public void unregister(MetricsRegistry registry) throws MalformedObjectNameException {
+        if (KeyspaceMetrics.removeTable(keyspace, columnFamily)) {
+            new KeyspaceMetrics(keyspace).register(registry);
+        }
+        Registry r = new Registry(registry, factory, aliasFactory, cfName);
+        registerCommon(r);
+        registerLocal(r);
     }
 
     @Override
@@ -299,6 +316,9 @@ public class TableMetrics implements Metrics {
     static class TableMetricObjectName extends javax.management.ObjectName {
         private final TableMetricStringNameFactory factory;
         private final String metricName;
+        // Names are hashed a lot when querying the MBean server, and the
+        // canonical name is built on demand, so remember the hash.
+        private int hash;
 
         public TableMetricObjectName(TableMetricStringNameFactory factory, String metricName) throws MalformedObjectNameException {
             super("");
@@ -324,7 +344,7 @@ public class TableMetrics implements Metrics {
 
         @Override
         public String getKeyProperty(String property) {
-            if (property == "name") {
+            if ("name".equals(property)) {
                 return metricName;
             }
             return factory.getKeyProperty(property);
@@ -360,7 +380,11 @@ public class TableMetrics implements Metrics {
 
         @Override
         public int hashCode() {
-            return getCanonicalName().hashCode();
+            int h = hash;
+            if (h == 0) {
+                h = hash = getCanonicalName().hashCode();
+            }
+            return h;
         }
 
         @Override
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.service;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.utils.MurmurHash;
+
+/**
+ * The replicas of the token ranges of a keyspace, to find those of a key
+ * without asking the API server.
+ * <p>
+ * Built from the range to endpoint map of the keyspace, which already
+ * applies its replication settings. The ranges are kept as their end tokens
+ * in ascending order, so that the range of a token is found by binary
+ * search, with the replicas of each range. Ranges with the same replicas
+ * share them.
+ * </p>
+ */
+class NaturalEndpoints {
+    private final long[] ends;
+    private final List<InetAddress>[] replicas;
+
+    private NaturalEndpoints(long[] ends, List<InetAddress>[] replicas) {
+        this.ends = ends;
+        this.replicas = replicas;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if the tokens are not those of Murmur3Partitioner
+     */
+    static NaturalEndpoints of(Map<List<String>, List<String>> rangeToEndpoints) {
+        int n = rangeToEndpoints.size();
+        if (n == 0) {
+            throw new IllegalStateException("No token ranges");
+        }
+        long[] ends = new long[n];
+        Map<List<String>, List<InetAddress>> shared = new HashMap<>();
+        Map<Long, List<InetAddress>> byEnd = new HashMap<>(n * 4 / 3 + 1);
+        int i = 0;
+        for (Map.Entry<List<String>, List<String>> e : rangeToEndpoints.entrySet()) {
+            List<String> range = e.getKey();
+            long end;
+            try {
+                end = Long.parseLong(range.get(range.size() - 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalStateException("Not a Murmur3Partitioner token: " + range);
+            }
+            ends[i++] = end;
+            byEnd.put(end, shared.computeIfAbsent(e.getValue(), NaturalEndpoints::addresses));
+        }
+        Arrays.sort(ends);
+        @SuppressWarnings("unchecked")
+        List<InetAddress>[] replicas = new List[n];
+        for (i = 0; i < n; i++) {
+            replicas[i] = byEnd.get(ends[i]);
+        }
+        return new NaturalEndpoints(ends, replicas);
+    }
+
+    private static List<InetAddress> addresses(List<String> endpoints) {
+        List<InetAddress> res = new ArrayList<>(endpoints.size());
+        for (String endpoint : endpoints) {
+            try {
+                res.add(InetAddress.getByName(endpoint));
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("Bad formatted address " + endpoint);
+            }
+        }
+        return unmodifiableList(res);
+    }
+
+    /**
+     * @return the replicas of the range (start, end] the token belongs to,
+     *         i.e. of the first end not before it, wrapping around the ring
+     */
+    List<InetAddress> get(long token) {
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < token) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return replicas[lo == ends.length ? 0 : lo];
+    }
+
+    /**
+     * @return the replicas of the given partition key
+     */
+    List<InetAddress> get(ByteBuffer key) {
+        return get(MurmurHash.murmur3Token(key));
+    }
+}
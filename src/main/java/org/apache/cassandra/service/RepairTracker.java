@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.service;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import com.scylladb.jmx.api.APIClient;
+
+/**
+ * Tracks all asynchronous repairs started through {@link StorageService}.
+ * <p>
+ * Instead of polling every repair on its own, a single sweep asks the API
+ * server for the ids of all active repairs, and only queries the final status
+ * of the repairs that are no longer active. The time between sweeps starts at
+ * "repairpollmin" ms and doubles every sweep without news, up to
+ * "repairpollmax" ms. It drops back to the minimum when a repair is started
+ * or finishes.
+ * </p>
+ * While no repair is tracked, nothing is scheduled at all. A repair that is
+ * still running is reported as such at most once every "repairpollmax" ms.
+ */
+class RepairTracker {
+    private static final Logger logger = Logger.getLogger(RepairTracker.class.getName());
+
+    private static final long MIN_INTERVAL = Long.getLong("repairpollmin", 100);
+    private static final long MAX_INTERVAL = Math.max(MIN_INTERVAL, Long.getLong("repairpollmax", 5000));
+
+    private static final ScheduledExecutorService executor = newTrackerExecutor();
+
+    private static ScheduledExecutorService newTrackerExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Storage Service Repair");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static class Repair {
+        private final int cmd;
+        private final String keyspace;
+        private final boolean legacy;
+        private final long started = System.currentTimeMillis();
+        private long reported = started;
+
+        Repair(int cmd, String keyspace, boolean legacy) {
+            this.cmd = cmd;
+            this.keyspace = keyspace;
+            this.legacy = legacy;
+        }
+    }
+
+    private final APIClient client;
+    private final StorageService service;
+    private final Map<Integer, Repair> repairs = new ConcurrentHashMap<>();
+
+    // All guarded by this
+    private ScheduledFuture<?> ticker;
+    private long interval = MIN_INTERVAL;
+    private long nextSweep;
+
+    RepairTracker(APIClient client, StorageService service) {
+        this.client = client;
+        this.service = service;
+    }
+
+    /**
+     * Start tracking the repair with the given command number.
+     */
+    synchronized void track(int cmd, String keyspace, boolean legacy) {
+        repairs.put(cmd, new Repair(cmd, keyspace, legacy));
+        interval = MIN_INTERVAL;
+        nextSweep = 0;
+        if (ticker == null) {
+            ticker = executor.scheduleWithFixedDelay(this::tick, MIN_INTERVAL, MIN_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return number of repairs currently tracked
+     */
+    int size() {
+        return repairs.size();
+    }
+
+    private void tick() {
+        synchronized (this) {
+            if (System.currentTimeMillis() < nextSweep) {
+                return;
+            }
+        }
+        try {
+            sweep();
+        } catch (Throwable t) {
+            // Never let the ticker die, or the remaining repairs would never
+            // be reported as finished.
+            logger.log(WARNING, "Repair status sweep failed", t);
+            backOff(false);
+        }
+    }
+
+    private void sweep() {
+        Set<Integer> active = activeRepairs();
+        boolean changed = false;
+
+        for (Repair r : new ArrayList<>(repairs.values())) {
+            if (active != null && active.contains(r.cmd)) {
+                continue;
+            }
+            String status;
+            try {
+                status = getStatus(r);
+            } catch (RuntimeException e) {
+                logger.log(WARNING, "Could not get status of repair " + r.cmd, e);
+                continue;
+            }
+            if (!"RUNNING".equals(status)) {
+                repairs.remove(r.cmd);
+                service.repairFinished(r.cmd, "SUCCESSFUL".equals(status), r.legacy);
+                changed = true;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (Repair r : repairs.values()) {
+            if (now - r.reported >= MAX_INTERVAL) {
+                r.reported = now;
+                service.repairProgress(r.cmd, (now - r.started) / 1000);
+            }
+        }
+        backOff(changed);
+    }
+
+    private synchronized void backOff(boolean changed) {
+        if (repairs.isEmpty()) {
+            // Nothing left, stop sweeping until the next repair starts
+            if (ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            interval = MIN_INTERVAL;
+            return;
+        }
+        interval = changed ? MIN_INTERVAL : Math.min(MAX_INTERVAL, interval * 2);
+        nextSweep = System.currentTimeMillis() + interval;
+    }
+
+    /**
+     * @return the ids of all running repairs, or null if the API server could
+     *         not list them, in which case every tracked repair is polled on
+     *         its own.
+     */
+    private Set<Integer> activeRepairs() {
+        try {
+            Set<Integer> res = new HashSet<>();
+            for (int id : client.getIntArrValue("/storage_service/active_repair/")) {
+                res.add(id);
+            }
+            return res;
+        } catch (RuntimeException e) {
+            logger.log(FINE, "Could not list active repairs", e);
+            return null;
+        }
+    }
+
+    private String getStatus(Repair r) {
+        MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
+        APIClient.set_query_param(queryParams, "id", Integer.toString(r.cmd));
+        return client.getStringValue("/storage_service/repair_async/" + r.keyspace, queryParams);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2020 ScyllaDB
+ */
+
+/*
+ * This file is part of Scylla.
+ *
+ * Scylla is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Scylla is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Scylla.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.cassandra.service;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+
+import com.scylladb.jmx.api.APIClient;
+
+/**
+ * Ring metadata (tokens, ranges, ownership, host ids) read from the API
+ * server, kept between calls for as long as the topology does not change.
+ * <p>
+ * The ring is large (a token per vnode), while the topology is described by
+ * a few small values: the schema version (replication settings), the live,
+ * joining, leaving and moving nodes, and the host ids. These are read again,
+ * in parallel, at most every "ringprobeinterval" ms (default 1000), and any
+ * difference drops all of the cached metadata. Operations changing the
+ * topology through this node drop it as well.
+ * </p>
+ */
+class RingCache {
+    private static final long PROBE_INTERVAL = Long.getLong("ringprobeinterval", 1000);
+
+    private static final String HOST_ID = "/storage_service/host_id";
+    private static final String[] PROBES = { "/storage_service/schema_version", "/gossiper/endpoint/live",
+            "/storage_service/nodes/joining", "/storage_service/nodes/leaving", "/storage_service/nodes/moving",
+            HOST_ID };
+
+    /**
+     * The token ring, as the tokens in ascending order and the endpoint owning
+     * each of them.
+     */
+    static final class Ring {
+        // Null if the tokens are not all numbers (i.e. not Murmur3)
+        final long[] tokens;
+        // Only if tokens is null, in the order of the API server
+        final String[] rawTokens;
+        // Index in endpoints of the owner of each token
+        final int[] owners;
+        final String[] endpoints;
+
+        private Ring(long[] tokens, String[] rawTokens, int[] owners, String[] endpoints) {
+            this.tokens = tokens;
+            this.rawTokens = rawTokens;
+            this.owners = owners;
+            this.endpoints = endpoints;
+        }
+
+        int size() {
+            return owners.length;
+        }
+
+        String token(int i) {
+            return tokens != null ? Long.toString(tokens[i]) : rawTokens[i];
+        }
+
+        String owner(int i) {
+            return endpoints[owners[i]];
+        }
+
+        static Ring of(Map<String, String> tokenToEndpoint) {
+            int n = tokenToEndpoint.size();
+            Map<String, Integer> indexes = new HashMap<>();
+            List<String> endpoints = new ArrayList<>();
+            String[] raw = new String[n];
+            int[] owners = new int[n];
+            int i = 0;
+            for (Map.Entry<String, String> e : tokenToEndpoint.entrySet()) {
+                raw[i] = e.getKey();
+                owners[i++] = indexes.computeIfAbsent(e.getValue(), k -> {
+                    endpoints.add(k);
+                    return endpoints.size() - 1;
+                });
+            }
+            String[] names = endpoints.toArray(new String[endpoints.size()]);
+
+            long[] tokens = new long[n];
+            boolean sorted = true;
+            try {
+                for (i = 0; i < n; i++) {
+                    tokens[i] = Long.parseLong(raw[i]);
+                    sorted &= i == 0 || tokens[i - 1] <= tokens[i];
+                }
+            } catch (NumberFormatException e) {
+                return new Ring(null, raw, owners, names);
+            }
+            if (!sorted) {
+                // Sort the tokens, with their owners
+                Integer[] order = new Integer[n];
+                for (i = 0; i < n; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Long.compare(tokens[a], tokens[b]));
+                long[] t = new long[n];
+                int[] o = new int[n];
+                for (i = 0; i < n; i++) {
+                    t[i] = tokens[order[i]];
+                    o[i] = owners[order[i]];
+                }
+                return new Ring(t, null, o, names);
+            }
+            return new Ring(tokens, null, owners, names);
+        }
+    }
+
+    private final APIClient client;
+
+    private List<Object> topology;
+    private long lastProbe;
+    private Ring ring;
+    private final Map<String, Object> values = new HashMap<>();
+
+    RingCache(APIClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Drops all of the cached metadata.
+     */
+    synchronized void invalidate() {
+        topology = null;
+        ring = null;
+        values.clear();
+    }
+
+    private void probe() {
+        long now = System.currentTimeMillis();
+        if (topology != null && now - lastProbe < PROBE_INTERVAL) {
+            return;
+        }
+        List<CompletableFuture<String>> futures = new ArrayList<>(PROBES.length);
+        for (String path : PROBES) {
+            futures.add(client.getRawValueAsync(path));
+        }
+        List<Object> res = new ArrayList<>(PROBES.length);
+        for (int i = 0; i < PROBES.length; i++) {
+            String json = APIClient.waitFor(futures.get(i));
+            res.add(PROBES[i].equals(HOST_ID) ? parseMap(json) : normalize(json));
+        }
+        if (!res.equals(topology)) {
+            invalidate();
+            topology = res;
+        }
+        lastProbe = now;
+    }
+
+    /**
+     * @return the probed value, as a value independent of the order of lists
+     */
+    private static Object normalize(String json) {
+        JsonStructure s;
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            s = reader.read();
+        } catch (RuntimeException e) {
+            // Not a list
+            return json;
+        }
+        if (!(s instanceof JsonArray)) {
+            return s;
+        }
+        Set<String> res = new HashSet<>();
+        for (JsonValue v : (JsonArray) s) {
+            res.add(v instanceof JsonString ? ((JsonString) v).getString() : v.toString());
+        }
+        return res;
+    }
+
+    private static Map<String, String> parseMap(String json) {
+        Map<String, String> res = new LinkedHashMap<>();
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            for (JsonValue v : reader.readArray()) {
+                JsonObject obj = (JsonObject) v;
+                if (obj.containsKey("key") && obj.containsKey("value")) {
+                    res.put(obj.getString("key"), obj.getString("value"));
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return endpoint to host id, in the order of the API server
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Map<String, String> getHostIds() {
+        probe();
+        return (Map<String, String>) topology.get(PROBES.length - 1);
+    }
+
+    synchronized Ring getRing() {
+        probe();
+        if (ring == null) {
+            ring = Ring.of(client.getMapStrValue("/storage_service/tokens_endpoint"));
+        }
+        return ring;
+    }
+
+    /**
+     * @return the value cached under key, loaded if there is none. Failures
+     *         are not cached.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> T get(String key, Supplier<T> loader) {
+        probe();
+        T res = (T) values.get(key);
+        if (res == null) {
+            res = loader.get();
+            values.put(key, res);
+        }
+        return res;
+    }
+}
@@ -23,8 +23,10 @@
 package org.apache.cassandra.service;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
@@ -32,14 +34,20 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -74,7 +82,6 @@ import com.scylladb.jmx.utils.FileUtils;
  */
 public class StorageService extends MetricsMBean implements StorageServiceMBean, NotificationBroadcaster {
     private static final Logger logger = Logger.getLogger(StorageService.class.getName());
-    private static final Timer timer = new Timer("Storage Service Repair", true);
 
     private final NotificationBroadcasterSupport notificationBroadcasterSupport = new NotificationBroadcasterSupport();
 
@@ -110,9 +117,36 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     /* JMX notification serial number counter */
     private final AtomicLong notificationSerialNumber = new AtomicLong();
 
+    private final RepairTracker repairTracker;
+
+    /* Counter used to tag progress notifications of admin operations */
+    private final AtomicInteger operationCounter = new AtomicInteger();
+
+    /**
+     * Admin operations split per table (cleanup, scrub, upgrade, snapshots)
+     * share this executor. The number of requests in flight at once is
+     * limited by the "adminconcurrency" system property.
+     */
+    private static final int ADMIN_CONCURRENCY = Integer.getInteger("adminconcurrency", 8);
+    private static final ExecutorService adminExecutor = newAdminExecutor(ADMIN_CONCURRENCY);
+
+    private static ExecutorService newAdminExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "Storage Service operation");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final RingCache ring;
+
     public StorageService(APIClient client) {
         super("org.apache.cassandra.db:type=StorageService", client, new StorageMetrics());
-
+        repairTracker = new RepairTracker(client, this);
+        ring = new RingCache(client);
     }
 
     public void log(String str) {
@@ -270,7 +304,18 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public Map<List<String>, List<String>> getRangeToEndpointMap(String keyspace) {
         log(" getRangeToEndpointMap(String keyspace)");
-        return client.getMapListStrValue("/storage_service/range/" + keyspace);
+        return new HashMap<>(rangeToEndpointMap(keyspace));
+    }
+
+    private Map<List<String>, List<String>> rangeToEndpointMap(String keyspace) {
+        return ring.get("range/" + keyspace, () -> {
+            Map<List<String>, List<String>> res = new HashMap<>();
+            for (Map.Entry<List<String>, List<String>> e : client
+                    .getMapListStrValue("/storage_service/range/" + keyspace).entrySet()) {
+                res.put(unmodifiableList(e.getKey()), unmodifiableList(e.getValue()));
+            }
+            return res;
+        });
     }
 
     /**
@@ -300,6 +345,10 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public List<String> describeRingJMX(String keyspace) throws IOException {
         log(" describeRingJMX(String keyspace) throws IOException");
+        return new ArrayList<>(ring.get("describe_ring/" + keyspace, () -> describeRing(keyspace)));
+    }
+
+    private List<String> describeRing(String keyspace) {
         JsonArray arr = client.getJsonArray("/storage_service/describe_ring/" + keyspace);
         List<String> res = new ArrayList<String>();
 
@@ -372,7 +421,12 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public Map<String, String> getTokenToEndpointMap() {
         log(" getTokenToEndpointMap()");
-        return client.getMapStrValue("/storage_service/tokens_endpoint");
+        RingCache.Ring r = ring.getRing();
+        Map<String, String> res = new LinkedHashMap<>(r.size() * 4 / 3 + 1);
+        for (int i = 0; i < r.size(); i++) {
+            res.put(r.token(i), r.owner(i));
+        }
+        return res;
     }
 
     /** Retrieve this hosts unique ID */
@@ -394,13 +448,17 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public Map<String, String> getHostIdMap() {
         log(" getHostIdMap()");
-        return client.getMapStrValue("/storage_service/host_id");
+        return new LinkedHashMap<>(ring.getHostIds());
     }
 
     /** Retrieve the mapping of endpoint to host ID */
     public Map<String, String> getHostIdToAddressMap() {
         log(" getHostIdToAddressMap()");
-        return client.getReverseMapStrValue("/storage_service/host_id");
+        Map<String, String> res = new HashMap<>();
+        for (Map.Entry<String, String> e : ring.getHostIds().entrySet()) {
+            res.put(e.getValue(), e.getKey());
+        }
+        return res;
     }
 
     /**
@@ -452,6 +510,10 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     /**
      * This method returns the N endpoints that are responsible for storing the
      * specified key i.e for replication.
+     * <p>
+     * Converting the key to bytes depends on the type of the partition key,
+     * which is not known here, so this is left to the API server.
+     * </p>
      *
      * @param keyspaceName
      *            keyspace name
@@ -464,16 +526,48 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public List<InetAddress> getNaturalEndpoints(String keyspaceName, String cf, String key) {
         log(" getNaturalEndpoints(String keyspaceName, String cf, String key)");
-        MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
-        queryParams.add("cf", cf);
-        queryParams.add("key", key);
-        return client.getListInetAddressValue("/storage_service/natural_endpoints/" + keyspaceName, queryParams);
+        return client.getListInetAddressValue("/storage_service/natural_endpoints/" + keyspaceName,
+                naturalEndpointsParams(cf, key));
     }
 
     @Override
     public List<InetAddress> getNaturalEndpoints(String keyspaceName, ByteBuffer key) {
         log(" getNaturalEndpoints(String keyspaceName, ByteBuffer key)");
-        return client.getListInetAddressValue("");
+        return new ArrayList<>(naturalEndpoints(keyspaceName).get(key));
+    }
+
+    @Override
+    public List<List<InetAddress>> getNaturalEndpointsForKeys(String keyspaceName, String cf, List<String> keys) {
+        log(" getNaturalEndpointsForKeys(String keyspaceName, String cf, List<String> keys)");
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            futures.add(client.getListStrValueAsync("/storage_service/natural_endpoints/" + keyspaceName,
+                    naturalEndpointsParams(cf, key)));
+        }
+        List<List<InetAddress>> res = new ArrayList<>(keys.size());
+        for (CompletableFuture<List<String>> f : futures) {
+            List<InetAddress> endpoints = new ArrayList<>();
+            for (String endpoint : APIClient.waitFor(f)) {
+                try {
+                    endpoints.add(InetAddress.getByName(endpoint));
+                } catch (UnknownHostException e) {
+                    throw new IllegalStateException("Bad formatted address " + endpoint);
+                }
+            }
+            res.add(endpoints);
+        }
+        return res;
+    }
+
+    private static MultivaluedMap<String, String> naturalEndpointsParams(String cf, String key) {
+        MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
+        queryParams.add("cf", cf);
+        queryParams.add("key", key);
+        return queryParams;
+    }
+
+    private NaturalEndpoints naturalEndpoints(String keyspace) {
+        return ring.get("natural_endpoints/" + keyspace, () -> NaturalEndpoints.of(rangeToEndpointMap(keyspace)));
     }
 
     /**
@@ -561,7 +655,10 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     }
 
     public Map<String, Map<String, Set<String>>> getSnapshotKeyspaceColumnFamily() {
-        JsonArray arr = client.getJsonArray("/storage_service/snapshots");
+        return getSnapshotKeyspaceColumnFamily(client.getJsonArray("/storage_service/snapshots"));
+    }
+
+    private static Map<String, Map<String, Set<String>>> getSnapshotKeyspaceColumnFamily(JsonArray arr) {
         Map<String, Map<String, Set<String>>> res = new HashMap<String, Map<String, Set<String>>>();
         for (int i = 0; i < arr.size(); i++) {
             JsonObject obj = arr.getJsonObject(i);
@@ -645,7 +742,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
         APIClient.set_bool_query_param(queryParams, "disable_snapshot", disableSnapshot);
         APIClient.set_bool_query_param(queryParams, "skip_corrupted", skipCorrupted);
         APIClient.set_query_param(queryParams, "cf", APIClient.join(columnFamilies));
-        return client.getIntValue("/storage_service/keyspace_scrub/" + keyspaceName);
+        return client.getIntValue("/storage_service/keyspace_scrub/" + keyspaceName, queryParams);
     }
 
     /**
@@ -679,41 +776,6 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
         client.post("/storage_service/keyspace_flush/" + keyspaceName, queryParams);
     }
 
-    private class CheckRepair extends TimerTask {
-        @SuppressWarnings("unused")
-        private int id;
-        private String keyspace;
-        private String message;
-        private MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
-        private int cmd;
-        private final boolean legacy;
-
-        public CheckRepair(int id, String keyspace, boolean legacy) {
-            this.id = id;
-            this.keyspace = keyspace;
-            this.legacy = legacy;
-            APIClient.set_query_param(queryParams, "id", Integer.toString(id));
-            message = String.format("Repair session %d ", id);
-            // The returned id is the command number
-            this.cmd = id;
-        }
-
-        @Override
-        public void run() {
-            String status = client.getStringValue("/storage_service/repair_async/" + keyspace, queryParams);
-            if (!status.equals("RUNNING")) {
-                cancel();
-                if (status.equals("SUCCESSFUL")) {
-                    sendMessage(cmd, RepairStatus.SESSION_SUCCESS, message, legacy);
-                } else {
-                    sendMessage(cmd, RepairStatus.SESSION_FAILED, message + "failed", legacy);
-                }
-                sendMessage(cmd, RepairStatus.FINISHED, message + "finished", legacy);
-            }
-        }
-
-    }
-
     /**
      * Sends JMX notification to subscribers.
      *
@@ -747,11 +809,27 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
 
         sendMessage(cmd, RepairStatus.STARTED, message, legacy);
 
-        TimerTask taskToExecute = new CheckRepair(cmd, keyspace, legacy);
-        timer.schedule(taskToExecute, 100, 1000);
+        repairTracker.track(cmd, keyspace, legacy);
         return cmd;
     }
 
+    void repairProgress(int cmd, long elapsedSeconds) {
+        String message = String.format("Repair session %d running for %d s", cmd, elapsedSeconds);
+        // The API server only tells whether a repair is running, so there
+        // is no count to report
+        sendProgress("repair:" + cmd, ProgressEventType.PROGRESS, -1, -1, message);
+    }
+
+    void repairFinished(int cmd, boolean success, boolean legacy) {
+        String message = String.format("Repair session %d ", cmd);
+        if (success) {
+            sendMessage(cmd, RepairStatus.SESSION_SUCCESS, message, legacy);
+        } else {
+            sendMessage(cmd, RepairStatus.SESSION_FAILED, message + "failed", legacy);
+        }
+        sendMessage(cmd, RepairStatus.FINISHED, message + "finished", legacy);
+    }
+
     // See org.apache.cassandra.utils.progress.ProgressEventType
     private static enum ProgressEventType {
         START, PROGRESS, ERROR, ABORT, SUCCESS, COMPLETE, NOTIFICATION
@@ -779,6 +857,14 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
             break;
         }
 
+        sendProgress(tag, type, count, total, message);
+
+        if (legacy) {
+            sendNotification("repair", message, new int[] { cmd, status.ordinal() });
+        }
+    }
+
+    private void sendProgress(String tag, ProgressEventType type, int count, int total, String message) {
         Notification jmxNotification = new Notification("progress", tag, notificationSerialNumber.incrementAndGet(),
                 message);
         Map<String, Integer> userData = new HashMap<>();
@@ -787,10 +873,94 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
         userData.put("total", total);
         jmxNotification.setUserData(userData);
         sendNotification(jmxNotification);
+    }
 
-        if (legacy) {
-            sendNotification("repair", message, new int[] { cmd, status.ordinal() });
+    @FunctionalInterface
+    private static interface TargetOperation<T> {
+        int run(T target) throws Exception;
+    }
+
+    /**
+     * Runs an admin operation once per target (typically a table), with at
+     * most <code>jobs</code> (or "adminconcurrency" if not positive) requests
+     * in flight. Progress is reported with "progress" notifications tagged
+     * "&lt;operation&gt;:&lt;id&gt;", as done for repairs.
+     *
+     * @return the highest status returned by any of the requests
+     */
+    private <T> int runConcurrently(String operation, int jobs, List<T> targets, TargetOperation<T> op)
+            throws ExecutionException, InterruptedException {
+        final int total = targets.size();
+        final int parallelism = Math.min(total, jobs > 0 ? Math.min(jobs, ADMIN_CONCURRENCY) : ADMIN_CONCURRENCY);
+        final String tag = operation + ":" + operationCounter.incrementAndGet();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger status = new AtomicInteger();
+
+        sendProgress(tag, ProgressEventType.START, 0, total,
+                String.format("Starting %s of %d targets (jobs=%d)", operation, total, parallelism));
+
+        List<Future<?>> workers = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(adminExecutor.submit(() -> {
+                for (int j = next.getAndIncrement(); j < total; j = next.getAndIncrement()) {
+                    T target = targets.get(j);
+                    try {
+                        status.accumulateAndGet(op.run(target), Math::max);
+                    } catch (Exception e) {
+                        // Do not start anything new once something failed
+                        next.set(total);
+                        throw e;
+                    }
+                    int count = done.incrementAndGet();
+                    sendProgress(tag, ProgressEventType.PROGRESS, count, total,
+                            String.format("%s of %s finished (progress: %d/%d)", operation, target, count, total));
+                }
+                return null;
+            }));
         }
+
+        ExecutionException failure = null;
+        try {
+            for (Future<?> f : workers) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            next.set(total);
+            sendProgress(tag, ProgressEventType.ABORT, done.get(), total, operation + " interrupted");
+            throw e;
+        }
+
+        if (failure != null) {
+            Throwable cause = failure.getCause();
+            sendProgress(tag, ProgressEventType.ERROR, done.get(), total, operation + " failed: " + cause.getMessage());
+            sendProgress(tag, ProgressEventType.COMPLETE, done.get(), total, operation + " finished with error");
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw failure;
+        }
+        sendProgress(tag, ProgressEventType.SUCCESS, total, total, operation + " finished successfully");
+        sendProgress(tag, ProgressEventType.COMPLETE, total, total, operation + " finished");
+        return status.get();
+    }
+
+    /**
+     * @return the given tables, or all tables of the keyspace if none are
+     *         given. Empty if the keyspace is unknown.
+     */
+    private List<String> tablesOf(String keyspaceName, String... tables) {
+        if (tables != null && tables.length > 0) {
+            return asList(tables);
+        }
+        Set<String> all = getColumnFamilyPerKeyspace().get(keyspaceName);
+        return all != null ? new ArrayList<>(all) : new ArrayList<>();
     }
 
     /**
@@ -916,6 +1086,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     public void decommission() throws InterruptedException {
         log(" decommission() throws InterruptedException");
         client.post("/storage_service/decommission");
+        ring.invalidate();
     }
 
     /**
@@ -929,6 +1100,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
         MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
         APIClient.set_query_param(queryParams, "new_token", newToken);
         client.post("/storage_service/move", queryParams);
+        ring.invalidate();
     }
 
     /**
@@ -944,6 +1116,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
         MultivaluedMap<String, String> queryParams = new MultivaluedHashMap<String, String>();
         APIClient.set_query_param(queryParams, "host_id", hostIdString);
         client.post("/storage_service/remove_node", queryParams);
+        ring.invalidate();
     }
 
     /**
@@ -962,6 +1135,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     public void forceRemoveCompletion() {
         log(" forceRemoveCompletion()");
         client.post("/storage_service/force_remove_completion");
+        ring.invalidate();
     }
 
     /**
@@ -1063,7 +1237,8 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public Map<InetAddress, Float> getOwnership() {
         log(" getOwnership()");
-        return client.getMapInetAddressFloatValue("/storage_service/ownership/");
+        return new HashMap<>(
+                ring.get("ownership", () -> client.getMapInetAddressFloatValue("/storage_service/ownership/")));
     }
 
     /**
@@ -1077,7 +1252,8 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     public Map<InetAddress, Float> effectiveOwnership(String keyspace) throws IllegalStateException {
         log(" effectiveOwnership(String keyspace) throws IllegalStateException");
         try {
-            return client.getMapInetAddressFloatValue("/storage_service/ownership/" + keyspace);
+            return new HashMap<>(ring.get("ownership/" + keyspace,
+                    () -> client.getMapInetAddressFloatValue("/storage_service/ownership/" + keyspace)));
         } catch (Exception e) {
             throw new IllegalStateException(
                     "Non-system keyspaces don't have the same replication settings, effective ownership information is meaningless");
@@ -1091,9 +1267,11 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     }
 
     public Map<String, Set<String>> getColumnFamilyPerKeyspace() {
-        Map<String, Set<String>> res = new HashMap<String, Set<String>>();
+        return getColumnFamilyPerKeyspace(client.getJsonArray("/column_family/"));
+    }
 
-        JsonArray mbeans = client.getJsonArray("/column_family/");
+    private static Map<String, Set<String>> getColumnFamilyPerKeyspace(JsonArray mbeans) {
+        Map<String, Set<String>> res = new HashMap<String, Set<String>>();
 
         for (int i = 0; i < mbeans.size(); i++) {
             JsonObject mbean = mbeans.getJsonObject(i);
@@ -1235,6 +1413,7 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     public void joinRing() throws IOException {
         log(" joinRing() throws IOException");
         client.post("/storage_service/join_ring");
+        ring.invalidate();
     }
 
     @Override
@@ -1539,8 +1718,14 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     public void takeMultipleColumnFamilySnapshot(String tag, String... columnFamilyList) throws IOException {
         log(" takeMultipleColumnFamilySnapshot");
         Map<String, List<String>> keyspaceColumnfamily = new HashMap<String, List<String>>();
-        Map<String, Set<String>> kss = getColumnFamilyPerKeyspace();
-        Map<String, Map<String, Set<String>>> snapshots = getSnapshotKeyspaceColumnFamily();
+        // Both are independent, so fetch them concurrently
+        CompletableFuture<Map<String, Set<String>>> kssFuture = client.getJsonArrayAsync("/column_family/", null)
+                .thenApply(StorageService::getColumnFamilyPerKeyspace);
+        CompletableFuture<Map<String, Map<String, Set<String>>>> snapshotsFuture = client
+                .getJsonArrayAsync("/storage_service/snapshots", null)
+                .thenApply(StorageService::getSnapshotKeyspaceColumnFamily);
+        Map<String, Set<String>> kss = APIClient.waitFor(kssFuture);
+        Map<String, Map<String, Set<String>>> snapshots = APIClient.waitFor(snapshotsFuture);
         for (String columnFamily : columnFamilyList) {
             String splittedString[] = columnFamily.split("\\.");
             if (splittedString.length == 2) {
@@ -1588,11 +1773,27 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
             }
         }
 
+        List<String> targets = new ArrayList<>();
         for (Entry<String, List<String>> entry : keyspaceColumnfamily.entrySet()) {
             for (String columnFamily : entry.getValue()) {
-                takeColumnFamilySnapshot(entry.getKey(), columnFamily, tag);
+                targets.add(entry.getKey() + "." + columnFamily);
             }
         }
+        try {
+            runConcurrently("snapshot", 0, targets, t -> {
+                int dot = t.indexOf('.');
+                takeColumnFamilySnapshot(t.substring(0, dot), t.substring(dot + 1), tag);
+                return 0;
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Snapshot " + tag + " interrupted");
+        }
     }
 
     @Override
@@ -1661,15 +1862,24 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public int forceKeyspaceCleanup(int jobs, String keyspaceName, String... tables)
             throws IOException, ExecutionException, InterruptedException {
-        // "jobs" not (yet) relevant for scylla. (though possibly useful...)
-        return forceKeyspaceCleanup(keyspaceName, tables);
+        log(" forceKeyspaceCleanup(int jobs, String keyspaceName, String... tables)");
+        List<String> targets = tablesOf(keyspaceName, tables);
+        if (targets.isEmpty()) {
+            return forceKeyspaceCleanup(keyspaceName, tables);
+        }
+        return runConcurrently("cleanup", jobs, targets, table -> forceKeyspaceCleanup(keyspaceName, table));
     }
 
     @Override
     public int scrub(boolean disableSnapshot, boolean skipCorrupted, boolean checkData, int jobs, String keyspaceName,
             String... columnFamilies) throws IOException, ExecutionException, InterruptedException {
-        // "jobs" not (yet) relevant for scylla. (though possibly useful...)
-        return scrub(disableSnapshot, skipCorrupted, checkData, 0, keyspaceName, columnFamilies);
+        log(" scrub(boolean disableSnapshot, boolean skipCorrupted, boolean checkData, int jobs, String keyspaceName, String... columnFamilies)");
+        List<String> targets = tablesOf(keyspaceName, columnFamilies);
+        if (targets.isEmpty()) {
+            return scrub(disableSnapshot, skipCorrupted, checkData, keyspaceName, columnFamilies);
+        }
+        return runConcurrently("scrub", jobs, targets,
+                table -> scrub(disableSnapshot, skipCorrupted, checkData, keyspaceName, table));
     }
 
     @Override
@@ -1683,8 +1893,13 @@ public class StorageService extends MetricsMBean implements StorageServiceMBean,
     @Override
     public int upgradeSSTables(String keyspaceName, boolean excludeCurrentVersion, int jobs, String... tableNames)
             throws IOException, ExecutionException, InterruptedException {
-        // "jobs" not (yet) relevant for scylla. (though possibly useful...)
-        return upgradeSSTables(keyspaceName, excludeCurrentVersion, tableNames);
+        log(" upgradeSSTables(String keyspaceName, boolean excludeCurrentVersion, int jobs, String... tableNames)");
+        List<String> targets = tablesOf(keyspaceName, tableNames);
+        if (targets.isEmpty()) {
+            return upgradeSSTables(keyspaceName, excludeCurrentVersion, tableNames);
+        }
+        return runConcurrently("upgradesstables", jobs, targets,
+                table -> upgradeSSTables(keyspaceName, excludeCurrentVersion, table));
     }
 
     @Override
@@ -213,6 +213,14 @@ public interface StorageServiceMBean extends NotificationEmitter {
 
     public List<InetAddress> getNaturalEndpoints(String keyspaceName, ByteBuffer key);
 
+    /**
+     * The same as {@code getNaturalEndpoints(String, String, String)}, for
+     * many keys at once.
+     *
+     * @return the endpoints responsible for each key, in the order of the keys
+     */
+    public List<List<InetAddress>> getNaturalEndpointsForKeys(String keyspaceName, String cf, List<String> keys);
+
     /**
      * Takes the snapshot for the given keyspaces. A snapshot name must be
      * specified.
@@ -24,7 +24,11 @@
 
 package org.apache.cassandra.streaming;
 
+import static java.util.Collections.emptySet;
+
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -32,17 +36,20 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanNotificationInfo;
-import javax.management.NotificationBroadcasterSupport;
+import javax.management.Notification;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 import javax.management.openmbean.CompositeData;
 
+import org.apache.cassandra.streaming.management.ProgressInfoCompositeData;
+import org.apache.cassandra.streaming.management.SessionInfoCompositeData;
 import org.apache.cassandra.streaming.management.StreamStateCompositeData;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.scylladb.jmx.api.APIClient;
 import com.scylladb.jmx.metrics.APIMBean;
+import com.scylladb.jmx.metrics.ProgressTracker;
 
 /**
  * StreamManager manages currently running {@link StreamResultFuture}s and
@@ -54,7 +61,84 @@ import com.scylladb.jmx.metrics.APIMBean;
 public class StreamManager extends APIMBean implements StreamManagerMBean {
     private static final Logger logger = Logger.getLogger(StreamManager.class.getName());
 
-    private final NotificationBroadcasterSupport notifier = new NotificationBroadcasterSupport();
+    private static final String EVENT = "org.apache.cassandra.streaming.StreamEvent";
+    public static final String SESSION_PREPARED = EVENT + ".SessionPreparedEvent";
+    public static final String PROGRESS = EVENT + ".ProgressEvent";
+    public static final String SUCCESS = EVENT + ".success";
+    public static final String FAILURE = EVENT + ".failure";
+
+    /**
+     * Sends the notifications of Cassandra's StreamEventJMXNotifier from the
+     * changes between two polls of the ongoing streams: a session appeared,
+     * a file made progress, or a plan is gone, in which case its outcome is
+     * that of the sessions when last seen.
+     */
+    private class StreamTracker extends ProgressTracker<StreamState> {
+        StreamTracker() {
+            super(OBJECT_NAME, new MBeanNotificationInfo(new String[] { SESSION_PREPARED, PROGRESS, SUCCESS, FAILURE },
+                    Notification.class.getName(), "Stream progress"));
+        }
+
+        @Override
+        protected Map<String, StreamState> poll() {
+            Map<String, StreamState> res = new HashMap<>();
+            for (StreamState s : getState()) {
+                res.put(s.planId.toString(), s);
+            }
+            return res;
+        }
+
+        private Map<String, SessionInfo> sessions(StreamState state) {
+            Map<String, SessionInfo> res = new HashMap<>();
+            for (SessionInfo s : state.sessions) {
+                res.put(s.peer.getHostAddress() + "/" + s.sessionIndex, s);
+            }
+            return res;
+        }
+
+        private Map<String, ProgressInfo> files(SessionInfo session) {
+            Map<String, ProgressInfo> res = new HashMap<>();
+            if (session != null) {
+                for (ProgressInfo p : Iterables.concat(session.getReceivingFiles(), session.getSendingFiles())) {
+                    res.put(p.direction + p.fileName, p);
+                }
+            }
+            return res;
+        }
+
+        @Override
+        protected void started(String key, StreamState state) {
+            progressed(key, new StreamState(state.planId, state.description, emptySet()), state);
+        }
+
+        @Override
+        protected void progressed(String key, StreamState previous, StreamState state) {
+            Map<String, SessionInfo> before = sessions(previous);
+            for (Map.Entry<String, SessionInfo> e : sessions(state).entrySet()) {
+                SessionInfo session = e.getValue();
+                if (!before.containsKey(e.getKey())) {
+                    send(SESSION_PREPARED, state.description,
+                            SessionInfoCompositeData.toCompositeData(state.planId, session));
+                }
+                Map<String, ProgressInfo> files = files(before.get(e.getKey()));
+                for (Map.Entry<String, ProgressInfo> f : files(session).entrySet()) {
+                    ProgressInfo p = f.getValue(), last = files.get(f.getKey());
+                    // ProgressInfo equality ignores currentBytes
+                    if (last == null || last.currentBytes != p.currentBytes) {
+                        send(PROGRESS, state.description, ProgressInfoCompositeData.toCompositeData(state.planId, p));
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void completed(String key, StreamState last) {
+            send(last.hasFailedSession() ? FAILURE : SUCCESS, last.description,
+                    StreamStateCompositeData.toCompositeData(last));
+        }
+    }
+
+    private final StreamTracker notifier = new StreamTracker();
 
     public StreamManager(APIClient c) {
         super(c);